@@ -1,10 +1,33 @@
 package B212.PSI.BIK;
 
+import jdk.jfr.*;
+
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.lang.Math.max;
 
@@ -45,6 +68,198 @@ interface AuthKey {
     );
 }
 
+/**
+ * Registry of server-client key pairs indexed by key ID in primitive array.
+ * Each key pair carries capability flags of clients using it - negotiated protocol extensions.
+ * Whole registry is immutable and replaced atomically on reload, so every reader sees consistent set of keys.
+ */
+class KeyRegistry {
+    /**
+     * Key ID has at most 3 digits
+     */
+    static final int MAX_KEYS = 1000;
+
+    /**
+     * Client accepts batch of commands in one write and replies in order
+     */
+    static final int PIPELINING = 1;
+
+    /**
+     * Client runs more missions on one authenticated connection
+     */
+    static final int MULTI_MISSION = 2;
+
+    private static final int STRIDE = 3;
+
+    private static volatile KeyRegistry current = defaults();
+
+    //server key, client key and flags of each key ID in row, -1 server key for missing key ID
+    private final int[] keys;
+    private final int size;
+
+    private KeyRegistry(int[] keys) {
+        this.keys = keys;
+        int count = 0;
+        for (int i = 0; i < keys.length; i += STRIDE)
+            if (keys[i] >= 0) ++count;
+        this.size = count;
+    }
+
+    /**
+     * @return Currently installed registry.
+     */
+    static KeyRegistry get() {
+        return current;
+    }
+
+    /**
+     * Atomically replaces installed registry.
+     *
+     * @param registry New registry.
+     */
+    static void install(KeyRegistry registry) {
+        current = registry;
+    }
+
+    /**
+     * @return Registry with built-in key pairs.
+     */
+    static KeyRegistry defaults() {
+        int[] keys = new int[AuthKey.AUTH_KEYS.size() * STRIDE];
+        AuthKey.AUTH_KEYS.forEach((id, pair) -> {
+            keys[id * STRIDE] = pair.getServerKey();
+            keys[id * STRIDE + 1] = pair.getClientKey();
+        });
+        return new KeyRegistry(keys);
+    }
+
+    /**
+     * Loads key pairs from file - one "keyID serverKey clientKey [flags]" per line, # starts comment.
+     * Flags are comma separated capability names - pipeline, multi. Each key ID may be defined only once.
+     *
+     * @param path File with key pairs.
+     * @return Loaded registry.
+     * @throws IOException If file cannot be read, has bad format or defines no key pair.
+     */
+    static KeyRegistry load(Path path) throws IOException {
+        int[] keys = new int[0];
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path)) {
+            ++lineNumber;
+            int comment = line.indexOf('#');
+            String[] parts = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+            if (parts.length == 1 && parts[0].isEmpty()) continue;
+            try {
+                if (parts.length != 3 && parts.length != 4) throw new NumberFormatException();
+                int id = Integer.parseInt(parts[0]);
+                int server = Integer.parseInt(parts[1]);
+                int client = Integer.parseInt(parts[2]);
+                if (id < 0 || id >= MAX_KEYS || server < 0 || server > 65535 || client < 0 || client > 65535)
+                    throw new NumberFormatException();
+                int flags = 0;
+                if (parts.length == 4) {
+                    for (String flag : parts[3].split(",")) {
+                        switch (flag) {
+                            case "pipeline" -> flags |= PIPELINING;
+                            case "multi" -> flags |= MULTI_MISSION;
+                            default -> throw new NumberFormatException();
+                        }
+                    }
+                }
+                if (keys.length < (id + 1) * STRIDE) {
+                    int old = keys.length;
+                    keys = Arrays.copyOf(keys, (id + 1) * STRIDE);
+                    Arrays.fill(keys, old, keys.length, -1);
+                }
+                if (keys[id * STRIDE] >= 0) throw new NumberFormatException(); //duplicate key ID
+                keys[id * STRIDE] = server;
+                keys[id * STRIDE + 1] = client;
+                keys[id * STRIDE + 2] = flags;
+            } catch (NumberFormatException e) {
+                throw new IOException("Server: BAD KEY FILE LINE " + lineNumber + " in " + path);
+            }
+        }
+        //registry without keys would fail every login
+        if (keys.length == 0) throw new IOException("Server: NO KEYS in " + path);
+        return new KeyRegistry(keys);
+    }
+
+    /**
+     * Watches key file in daemon thread and installs new registry whenever file is modified.
+     * Bad file keeps previous registry installed.
+     *
+     * @param path     File with key pairs.
+     * @param interval Check interval in ms.
+     */
+    static void watch(Path path, long interval) {
+        Thread watcher = new Thread(() -> {
+            long modified = 0;
+            try {
+                modified = Files.getLastModifiedTime(path).toMillis();
+            } catch (IOException ignored) {
+                //missing file is loaded once it appears
+            }
+            while (true) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    long now = Files.getLastModifiedTime(path).toMillis();
+                    if (now != modified) {
+                        modified = now;
+                        install(load(path));
+                        System.out.println("Server: KEYS RELOADED - " + get().size() + " pairs from " + path);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Server: KEYS NOT RELOADED - " + e.getMessage());
+                }
+            }
+        }, "key-registry-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id * STRIDE < keys.length && keys[id * STRIDE] >= 0;
+    }
+
+    public int getServerKey(int id) {
+        return keys[id * STRIDE];
+    }
+
+    public int getClientKey(int id) {
+        return keys[id * STRIDE + 1];
+    }
+
+    /**
+     * @param id   Key ID.
+     * @param flag Capability flag.
+     * @return True if clients of key ID support capability.
+     */
+    public boolean hasFlag(int id, int flag) {
+        return (keys[id * STRIDE + 2] & flag) != 0;
+    }
+
+    /**
+     * @return Number of key pairs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return All present key IDs in ascending order.
+     */
+    public int[] ids() {
+        int[] ids = new int[size];
+        for (int i = 0, n = 0; i < keys.length; i += STRIDE)
+            if (keys[i] >= 0) ids[n++] = i / STRIDE;
+        return ids;
+    }
+}
+
 /**
  * Contains predefined server messages constants
  */
@@ -72,6 +287,171 @@ interface Timeouts {
     int TIMEOUT_RECHARGING = 5000;
 }
 
+/**
+ * Contains server configuration constants - overridable by system properties
+ */
+interface ServerConfig {
+    /**
+     * Number of synthetic robot sessions run before listener starts accepting, 0 disables warm-up
+     */
+    int WARMUP_SESSIONS = Integer.getInteger("robot.warmup.sessions", 0);
+
+    /**
+     * Max number of concurrent sessions held in session table
+     */
+    int MAX_SESSIONS = Integer.getInteger("robot.sessions.max", 1 << 20);
+
+    /**
+     * Enables per-session CPU and allocation accounting
+     */
+    boolean ACCOUNTING = Boolean.getBoolean("robot.accounting");
+
+    /**
+     * Number of most expensive sessions kept by accounting
+     */
+    int ACCOUNTING_TOP = Integer.getInteger("robot.accounting.top", 10);
+
+    /**
+     * Name of socket options profile - default or low-latency
+     */
+    String SOCKET_PROFILE = System.getProperty("robot.socket.profile", "default");
+
+    /**
+     * Listening port used when no listening socket is inherited
+     */
+    int PORT = Integer.getInteger("robot.port", 1111);
+
+    /**
+     * Binds with SO_REUSEPORT, so new instance can bind while old one drains.
+     * Each instance has own accept queue - connections still queued at old instance are reset when it drains
+     * (unless kernel migrates them, net.ipv4.tcp_migrate_req on Linux). Only inherited listening socket hands over without refused connections.
+     */
+    boolean REUSE_PORT = Boolean.getBoolean("robot.reuseport");
+
+    /**
+     * Max time in ms given to running sessions to finish after listener stopped accepting
+     */
+    int DRAIN_TIMEOUT = Integer.getInteger("robot.drain.timeout", 10000);
+
+    /**
+     * File with server-client key pairs, built-in pairs are used when not set
+     */
+    String KEYS_FILE = System.getProperty("robot.keys.file");
+
+    /**
+     * Interval in ms of checking key file for changes, 0 disables reloading
+     */
+    int KEYS_RELOAD_INTERVAL = Integer.getInteger("robot.keys.reload.interval", 5000);
+
+    /**
+     * Loopback port of admin console, 0 disables it
+     */
+    int ADMIN_PORT = Integer.getInteger("robot.admin.port", 0);
+
+    /**
+     * Max number of missions on one connection of multi-mission client
+     */
+    int MAX_MISSIONS = Integer.getInteger("robot.missions.max", 10);
+
+    /**
+     * Time in ms after which multi-mission connection starts no new mission
+     */
+    int MISSIONS_TIMEOUT = Integer.getInteger("robot.missions.timeout", 600000);
+
+    /**
+     * Number of sessions processing their step at once under scheduler, 0 disables scheduling
+     */
+    int SCHEDULER_PERMITS = Integer.getInteger("robot.scheduler.permits", 0);
+
+    /**
+     * Max time in ms handshake waits for its step before it is shed, 0 only defers handshakes and never sheds them
+     */
+    int SCHEDULER_HANDSHAKE_WAIT = Integer.getInteger("robot.scheduler.handshake.wait", 0);
+
+    /**
+     * Number of waiting sessions above which new connections are shed right after accept
+     */
+    int SCHEDULER_MAX_WAITING = Integer.getInteger("robot.scheduler.max.waiting", 1000);
+}
+
+/**
+ * Socket options applied on listening and robot sockets. Negative values keep system defaults.
+ */
+class SocketProfile {
+    /**
+     * System defaults - Nagle enabled, default buffers and backlog
+     */
+    static final SocketProfile DEFAULT = new SocketProfile("default", false, -1, -1, false, 50);
+
+    /**
+     * Lock-step protocol of tiny frames - Nagle disabled, small buffers, keepalive and long backlog
+     */
+    static final SocketProfile LOW_LATENCY = new SocketProfile("low-latency", true, 4096, 4096, true, 1024);
+
+    private final String name;
+    private final boolean tcpNoDelay;
+    private final int sendBuffer;
+    private final int receiveBuffer;
+    private final boolean keepAlive;
+    private final int backlog;
+
+    public SocketProfile(String name, boolean tcpNoDelay, int sendBuffer, int receiveBuffer, boolean keepAlive, int backlog) {
+        this.name = name;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBuffer = sendBuffer;
+        this.receiveBuffer = receiveBuffer;
+        this.keepAlive = keepAlive;
+        this.backlog = backlog;
+    }
+
+    /**
+     * Finds predefined profile.
+     *
+     * @param name Profile name.
+     * @return Instance of SocketProfile, DEFAULT for unknown name.
+     */
+    static SocketProfile forName(String name) {
+        return LOW_LATENCY.name.equals(name) ? LOW_LATENCY : DEFAULT;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Applies options on listening socket before binding - accepted sockets inherit receive buffer.
+     *
+     * @param ss Unbound server socket.
+     * @throws IOException If option cannot be set.
+     */
+    public void applyListening(ServerSocket ss) throws IOException {
+        if (receiveBuffer > 0) ss.setReceiveBufferSize(receiveBuffer);
+    }
+
+    /**
+     * Applies options on connected robot socket.
+     *
+     * @param socket Connected socket.
+     * @throws IOException If option cannot be set.
+     */
+    public void apply(Socket socket) throws IOException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (sendBuffer > 0) socket.setSendBufferSize(sendBuffer);
+        if (receiveBuffer > 0) socket.setReceiveBufferSize(receiveBuffer);
+    }
+
+    @Override
+    public String toString() {
+        return name + " {nodelay=" + tcpNoDelay + ", sndbuf=" + sendBuffer + ", rcvbuf=" + receiveBuffer
+                + ", keepalive=" + keepAlive + ", backlog=" + backlog + "}";
+    }
+}
+
 /**
  * Base class for messages.
  */
@@ -125,6 +505,24 @@ class ServerMessage extends Message {
     public String getMessage() {
         return text + code + "\u0007\u0008";
     }
+
+    /**
+     * @return True if client is supposed to reply to this message.
+     */
+    public boolean isCommand() {
+        return switch (text) {
+            case ServerMessageText.SERVER_CONFIRMATION, ServerMessageText.SERVER_KEY_REQUEST, ServerMessageText.SERVER_MOVE,
+                    ServerMessageText.SERVER_TURN_LEFT, ServerMessageText.SERVER_TURN_RIGHT, ServerMessageText.SERVER_PICK_UP -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return Short command name for diagnostics.
+     */
+    public String getCommandName() {
+        return text.isEmpty() ? "CONFIRMATION" : text;
+    }
 }
 
 /**
@@ -142,21 +540,148 @@ class ClientMessage extends Message {
 
 }
 
+/**
+ * JFR event covering whole lifecycle of one robot session
+ */
+@Name("robot.Session")
+@Label("Robot Session")
+@Category("Robot Server")
+@StackTrace(false)
+class SessionEvent extends Event {
+    @Label("Session Slot")
+    int slot;
+
+    @Label("Key ID")
+    int keyId;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Missions")
+    int missions;
+}
+
+/**
+ * JFR event covering one protocol phase - authenticate, move or pick
+ */
+@Name("robot.Phase")
+@Label("Robot Protocol Phase")
+@Category("Robot Server")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Session Slot")
+    int slot;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Key ID")
+    int keyId;
+
+    @Label("X")
+    int x;
+
+    @Label("Y")
+    int y;
+
+    @Label("Success")
+    boolean success;
+}
+
+/**
+ * JFR event covering one command - reply round trip
+ */
+@Name("robot.Command")
+@Label("Robot Command Round Trip")
+@Category("Robot Server")
+@StackTrace(false)
+@Threshold("1 ms")
+class CommandEvent extends Event {
+    @Label("Session Slot")
+    int slot;
+
+    @Label("Command")
+    String command;
+
+    @Label("Key ID")
+    int keyId;
+
+    @Label("X")
+    int x;
+
+    @Label("Y")
+    int y;
+}
+
+/**
+ * JFR event covering recharging window of robot
+ */
+@Name("robot.Recharge")
+@Label("Robot Recharging")
+@Category("Robot Server")
+@StackTrace(false)
+class RechargeEvent extends Event {
+    @Label("Session Slot")
+    int slot;
+
+    @Label("Key ID")
+    int keyId;
+
+    @Label("X")
+    int x;
+
+    @Label("Y")
+    int y;
+}
+
+/**
+ * JFR event for protocol errors ending the session
+ */
+@Name("robot.ProtocolError")
+@Label("Robot Protocol Error")
+@Category("Robot Server")
+@StackTrace(false)
+class ProtocolErrorEvent extends Event {
+    @Label("Session Slot")
+    int slot;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Key ID")
+    int keyId;
+
+    @Label("Message")
+    String message;
+}
+
 /**
  * Wrapper for sending and receiving all messages
  */
 class Messenger {
+    //checked before allocating command event, so disabled JFR costs no allocation per command
+    private static final EventType COMMAND_EVENT = EventType.getEventType(CommandEvent.class);
+
     private final int MAX_LENGTH = 12;
     private final String RECHARGING = "RECHARGING";
     private final String FULL_POWER = "FULL POWER";
     private final Socket socket;
     private final BufferedReader reader;
     private final PrintWriter writer;
-
-    public Messenger(BufferedReader reader, PrintWriter writer, Socket socket) {
+    private final SessionTable table;
+    private final int slot;
+    private final ProgressScheduler scheduler;
+    private boolean stepRunning;
+    private final ArrayDeque<CommandEvent> pendingCommands = new ArrayDeque<>(4);
+    private int lastSum;
+
+    public Messenger(BufferedReader reader, PrintWriter writer, Socket socket, SessionTable table, int slot, ProgressScheduler scheduler) {
         this.reader = reader;
         this.writer = writer;
         this.socket = socket;
+        this.table = table;
+        this.slot = slot;
+        this.scheduler = scheduler;
     }
 
     /**
@@ -171,6 +696,7 @@ class Messenger {
         char[] charMessage = new char[max];
         boolean flagA = false;
         int length = 0;
+        int sum = 0;
         for (int i = 0; i < max; ++i) {
             int in = reader.read();
             ++length;
@@ -178,6 +704,7 @@ class Messenger {
             if (in < 0) break;
             //red into array
             charMessage[i] = (char) in;
+            sum += in;
             //check \a\b and break or set flags
             if (in == '\u0008' && flagA) break;
             if (in == '\u0007') flagA = true;
@@ -191,6 +718,7 @@ class Messenger {
             System.out.println("Server: CLIENT MESSAGE BAD ENDING");
             throw new IOException("Server: BAD CLIENT MESSAGE");
         }
+        lastSum = sum - '\u0007' - '\u0008';
 
         String newMessage = new String(charMessage, 0, length - 2);
 
@@ -208,9 +736,16 @@ class Messenger {
      * @throws IOException If IOException occurred in nested calls, or recharging failed.
      */
     private ClientMessage receiveMessage(int max) throws IOException {
+        //never block on socket while holding scheduler permit - e.g. between replies of pipelined batch
+        endStep();
         ClientMessage message = parseMessage(max);
 
+        table.touch(slot);
+
         if (message.text.equals(RECHARGING)) {
+            RechargeEvent recharge = new RechargeEvent();
+            recharge.begin();
+            table.setRecharging(slot, true);
             socket.setSoTimeout(Timeouts.TIMEOUT_RECHARGING); //set recharging timeout
             message = parseMessage(max);
             if (!message.text.equals(FULL_POWER)) {
@@ -219,6 +754,15 @@ class Messenger {
                 throw new IOException("Server: LOGIC ERROR - Client communicate during recharging.");
             }
 
+            table.setRecharging(slot, false);
+            if (recharge.shouldCommit()) {
+                recharge.slot = slot;
+                recharge.keyId = table.getKeyId(slot);
+                recharge.x = table.getX(slot);
+                recharge.y = table.getY(slot);
+                recharge.commit();
+            }
+
             socket.setSoTimeout(Timeouts.TIMEOUT); //set back standard timeout
             message = parseMessage(max);
         } else if (message.text.equals(FULL_POWER)) {
@@ -227,9 +771,55 @@ class Messenger {
             throw new IOException("Server: LOGIC ERROR - Client ends RECHARGING without started.");
         }
 
+        commitCommand();
+
+        //processing of reply waits for scheduler permit
+        if (scheduler != null && !stepRunning) {
+            scheduler.acquire(slot);
+            stepRunning = true;
+        }
         return message;
     }
 
+    /**
+     * Ends session step - returns scheduler permit if held. Called on flush, before reading next reply and at session end.
+     */
+    public void endStep() {
+        if (stepRunning) {
+            stepRunning = false;
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Starts round trip event if command was sent and JFR event is enabled.
+     *
+     * @param message Sent message.
+     */
+    private void beginCommand(ServerMessage message) {
+        if (!COMMAND_EVENT.isEnabled() || !message.isCommand()) return;
+        CommandEvent event = new CommandEvent();
+        event.command = message.getCommandName();
+        event.begin();
+        pendingCommands.add(event);
+    }
+
+    /**
+     * Commits round trip event of oldest unanswered command after its reply was received.
+     */
+    private void commitCommand() {
+        CommandEvent event = pendingCommands.poll();
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.slot = slot;
+            event.keyId = table.getKeyId(slot);
+            event.x = table.getX(slot);
+            event.y = table.getY(slot);
+            event.commit();
+        }
+    }
+
     /**
      * Sends message
      *
@@ -237,11 +827,39 @@ class Messenger {
      * @throws IOException If message cannot be sent.
      */
     public void send(ServerMessage message) throws IOException {
+        queue(message);
+        flush();
+    }
+
+    /**
+     * Writes message without flushing - used for pipelining batch of commands into one write.
+     *
+     * @param message Message to be sent
+     */
+    public void queue(ServerMessage message) {
         writer.print(message.getMessage());
-        writer.flush();
+        if (message.isCommand()) table.countCommand(slot);
+        beginCommand(message);
         System.out.println("Server sending: " + message.getMessage());
     }
 
+    /**
+     * Sends all queued messages.
+     *
+     * @throws IOException If messages cannot be sent.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+        endStep();
+    }
+
+
+    /**
+     * @return Sum of characters of last received message - computed while decoding.
+     */
+    public int getLastSum() {
+        return lastSum;
+    }
 
     // -------- AUTH METHODS ---------------------------
 
@@ -263,10 +881,11 @@ class Messenger {
     /**
      * Reads expected message with client key.
      *
+     * @param keys Key registry to validate key ID against.
      * @return int contains client key from message.
      * @throws IOException If wrong message or other IO error occurred.
      */
-    public int readKey() throws IOException {
+    public int readKey(KeyRegistry keys) throws IOException {
         //check length
         ClientMessage message = receiveMessage(5);
         if (message.getMessageText().length() > 3) {
@@ -284,7 +903,7 @@ class Messenger {
             throw new IOException("Server: BAD KEY_ID - NOT NUMERIC");
         }
 
-        if (!AuthKey.AUTH_KEYS.containsKey(key)) {
+        if (!keys.contains(key)) {
             send(new ServerMessage(ServerMessageText.SERVER_KEY_OUT_OF_RANGE_ERROR));
             System.out.println("Server: BAD KEY_ID - NOT IN RANGE");
             throw new IOException("Server: BAD KEY_ID");
@@ -493,54 +1112,722 @@ class RobotPosition {
         }
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * x + y;
+    }
 }
 
 /**
- * Class representing one client-robot in its whole lifecycle
+ * Schedules session steps - processing of robot reply up to sending next command - under overload.
+ * Only given number of sessions process their step at once, waiting sessions get permit by progress:
+ * later phase first, then closer to target, then more commands already spent. Handshakes are served last,
+ * optionally shed when they wait too long (-Drobot.scheduler.handshake.wait, off by default). New connections are shed when too many sessions wait.
+ * Session never holds permit while blocked on its socket.
  */
-class Robot {
-    //authentication parameters
-    private String name;
-
-    //moving parameters
-    private RobotPosition position;
-    private RobotOrientation orientation;
-
+class ProgressScheduler {
+    //waiting session checks this often whether it was closed meanwhile - e.g. evicted by admin
+    private static final long CHECK_INTERVAL = 100_000_000L;
 
-    public String getName() {
-        return name;
+    /**
+     * Session waiting for permit
+     */
+    private static final class Waiter {
+        final long score;
+        final long order;
+        final Condition granted;
+        boolean done;
+
+        Waiter(long score, long order, Condition granted) {
+            this.score = score;
+            this.order = order;
+            this.granted = granted;
+        }
     }
 
-    public void setName(String userName) {
-        name = userName;
+    private final SessionTable table;
+    private final int handshakeWait;
+    private final int maxWaiting;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>((a, b) -> a.score != b.score
+            ? Long.compare(b.score, a.score) : Long.compare(a.order, b.order));
+    private int available; //guarded by lock
+    private long order; //guarded by lock
+
+    //metrics
+    private volatile long started = System.nanoTime();
+    private final LongAdder immediate = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder[] waitNanos = new LongAdder[SessionPhase.NAMES.length];
+    private final LongAdder[] waits = new LongAdder[SessionPhase.NAMES.length];
+    private final LongAdder shedAccepts = new LongAdder();
+    private final LongAdder shedHandshakes = new LongAdder();
+    private final LongAdder missions = new LongAdder();
+    private volatile int maxQueue;
+
+    public ProgressScheduler(SessionTable table, int permits, int handshakeWait, int maxWaiting) {
+        this.table = table;
+        this.available = permits;
+        this.handshakeWait = handshakeWait;
+        this.maxWaiting = maxWaiting;
+        for (int i = 0; i < SessionPhase.NAMES.length; ++i) {
+            waitNanos[i] = new LongAdder();
+            waits[i] = new LongAdder();
+        }
     }
 
-    public RobotPosition getPosition() {
-        return position;
+    /**
+     * Priority of session from its progress, bigger is served first.
+     *
+     * @param slot Session slot.
+     * @return Score.
+     */
+    long score(int slot) {
+        int phase = table.getPhase(slot);
+        //position is not known until orientation is set
+        long distance = table.getOrientation(slot) == null ? 999 : Math.min(999, Math.abs((long) table.getX(slot)) + Math.abs((long) table.getY(slot)));
+        return phase * 1_000_000L + (999 - distance) * 1000 + Math.min(999, table.getCommands(slot));
     }
 
-    public void setPosition(RobotPosition position) {
-        this.position = position;
+    /**
+     * Decides if new connection should be refused right after accept.
+     *
+     * @return True if connection should be closed.
+     */
+    public boolean shedAccept() {
+        if (waiters.size() <= maxWaiting) return false; //racy read is fine for shedding
+        shedAccepts.increment();
+        return true;
     }
 
-    public RobotOrientation getOrientation() {
-        return orientation;
-    }
+    /**
+     * Waits for permit to process next step of session.
+     *
+     * @param slot Session slot.
+     * @throws IOException If handshake was shed, session was closed while waiting or thread interrupted.
+     */
+    public void acquire(int slot) throws IOException {
+        int phase = table.getPhase(slot);
+        boolean handshake = phase <= SessionPhase.AUTHENTICATING;
+        lock.lock();
+        try {
+            if (available > 0 && waiters.isEmpty()) {
+                --available;
+                immediate.increment();
+                return;
+            }
+
+            Waiter waiter = new Waiter(score(slot), order++, lock.newCondition());
+            waiters.add(waiter);
+            maxQueue = max(maxQueue, waiters.size());
+            queued.increment();
+            long start = System.nanoTime();
+            long deadline = start + handshakeWait * 1_000_000L;
+            try {
+                while (!waiter.done) {
+                    if (!table.isOpen(slot)) {
+                        waiters.remove(waiter);
+                        throw new IOException("Server: SESSION CLOSED while waiting");
+                    }
+                    long wait = CHECK_INTERVAL;
+                    if (handshake && handshakeWait > 0) {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            waiters.remove(waiter);
+                            shedHandshakes.increment();
+                            throw new IOException("Server: SESSION SHED - overloaded");
+                        }
+                        wait = Math.min(wait, left);
+                    }
+                    waiter.granted.awaitNanos(wait);
+                }
+            } catch (InterruptedException e) {
+                if (!waiters.remove(waiter)) grantNext(); //permit already given - pass it on
+                Thread.currentThread().interrupt();
+                throw new IOException("Server: SESSION INTERRUPTED while waiting");
+            }
+            waits[phase].increment();
+            waitNanos[phase].add(System.nanoTime() - start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns permit - best waiting session gets it.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            grantNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grantNext() {
+        Waiter next = waiters.poll();
+        if (next == null) {
+            ++available;
+        } else {
+            next.done = true;
+            next.granted.signal();
+        }
+    }
+
+    /**
+     * @return Number of sessions waiting for permit.
+     */
+    public int waiting() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts mission finished by delivering secret.
+     */
+    public void missionCompleted() {
+        missions.increment();
+    }
+
+    /**
+     * Forgets metrics collected so far - e.g. of warm-up sessions.
+     */
+    public void resetMetrics() {
+        started = System.nanoTime();
+        immediate.reset();
+        queued.reset();
+        for (int i = 0; i < SessionPhase.NAMES.length; ++i) {
+            waitNanos[i].reset();
+            waits[i].reset();
+        }
+        shedAccepts.reset();
+        shedHandshakes.reset();
+        missions.reset();
+        maxQueue = 0;
+    }
+
+    /**
+     * @return Metrics showing effect of scheduling policy.
+     */
+    @Override
+    public String toString() {
+        double seconds = max(1, (System.nanoTime() - started) / 1_000_000_000L);
+        StringBuilder text = new StringBuilder("Server: SCHEDULER missions ").append(missions.sum())
+                .append(String.format(" (%.2f/s)", missions.sum() / seconds))
+                .append(" | steps immediate ").append(immediate.sum()).append(" queued ").append(queued.sum())
+                .append(" | waiting ").append(waiting()).append(" max ").append(maxQueue)
+                .append(" | shed accepts ").append(shedAccepts.sum()).append(" handshakes ").append(shedHandshakes.sum())
+                .append(" | avg wait us");
+        for (int phase = 0; phase < SessionPhase.CLOSED; ++phase) {
+            long count = waits[phase].sum();
+            text.append(' ').append(SessionPhase.NAMES[phase]).append(' ').append(count == 0 ? 0 : waitNanos[phase].sum() / count / 1000);
+        }
+        return text.toString();
+    }
+}
+
+/**
+ * Contains session phase constants
+ */
+interface SessionPhase {
+    int CONNECTED = 0;
+    int AUTHENTICATING = 1;
+    int MOVING = 2;
+    int PICKING = 3;
+    int CLOSED = 4;
+
+    String[] NAMES = {"CONNECTED", "AUTHENTICATING", "MOVING", "PICKING", "CLOSED"};
+}
+
+/**
+ * Compact store of per-robot session state - navigation and auth state lives in primitive arrays indexed by session slot.
+ * It replaces per-robot state objects only - socket, thread and stream buffers of connection are still held by Service.
+ * Arrays are allocated in fixed size segments which are never moved, so table grows without copying.
+ * Every slot is written only by thread owning the session, slots are recycled on release.
+ * Snapshots read arrays without locking - they never stall session threads, values of running sessions may be slightly stale.
+ */
+class SessionTable {
+    private static final int SEGMENT_BITS = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Orientations indexed by stored ordinal, 0 stands for not yet known orientation
+     */
+    static final RobotOrientation[] ORIENTATIONS = {null, RobotOrientation.XP, RobotOrientation.XN, RobotOrientation.YP, RobotOrientation.YN};
+
+    /**
+     * Point in time view of one session
+     */
+    record SessionInfo(int slot, int generation, int phase, int keyId, int x, int y, RobotOrientation orientation,
+                       int commands, long ageMs, long idleMs, long rechargingMs) {
+
+        /**
+         * @return Session ID used for eviction - slot and its generation.
+         */
+        String id() {
+            return slot + "." + generation;
+        }
+
+        @Override
+        public String toString() {
+            return id() + " " + SessionPhase.NAMES[phase] + " key=" + keyId + " pos=[" + x + "," + y + "] orient="
+                    + (orientation == null ? "?" : orientation) + " commands=" + commands + " age=" + ageMs + "ms idle=" + idleMs
+                    + "ms recharging=" + rechargingMs + "ms";
+        }
+    }
+
+    private final int capacity;
+    private final int[][] keyId;
+    private final int[][] x;
+    private final int[][] y;
+    private final byte[][] orientation;
+    private final byte[][] phase;
+    private final int[][] commands;
+    private final int[][] generation;
+    private final long[][] started;
+    private final long[][] lastActivity;
+    private final long[][] rechargingSince;
+    private final Socket[][] sockets;
+
+    //slot allocation - guarded by this
+    private int[] free = new int[SEGMENT_SIZE];
+    private int freeCount;
+    private volatile int next;
+
+    public SessionTable(int capacity) {
+        this.capacity = capacity;
+        int segments = (capacity + SEGMENT_MASK) >>> SEGMENT_BITS;
+        keyId = new int[segments][];
+        x = new int[segments][];
+        y = new int[segments][];
+        orientation = new byte[segments][];
+        phase = new byte[segments][];
+        commands = new int[segments][];
+        generation = new int[segments][];
+        started = new long[segments][];
+        lastActivity = new long[segments][];
+        rechargingSince = new long[segments][];
+        sockets = new Socket[segments][];
+    }
+
+    /**
+     * Takes free slot for new session, recycled slots are preferred.
+     *
+     * @param socket Robot socket - closed on eviction.
+     * @return Slot index.
+     * @throws IllegalStateException If table is full.
+     */
+    public synchronized int acquire(Socket socket) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (next >= capacity) throw new IllegalStateException("Server: SESSION TABLE FULL");
+            slot = next;
+            int segment = slot >>> SEGMENT_BITS;
+            if (x[segment] == null) {
+                keyId[segment] = new int[SEGMENT_SIZE];
+                x[segment] = new int[SEGMENT_SIZE];
+                y[segment] = new int[SEGMENT_SIZE];
+                orientation[segment] = new byte[SEGMENT_SIZE];
+                phase[segment] = new byte[SEGMENT_SIZE];
+                commands[segment] = new int[SEGMENT_SIZE];
+                generation[segment] = new int[SEGMENT_SIZE];
+                started[segment] = new long[SEGMENT_SIZE];
+                lastActivity[segment] = new long[SEGMENT_SIZE];
+                rechargingSince[segment] = new long[SEGMENT_SIZE];
+                sockets[segment] = new Socket[SEGMENT_SIZE];
+            }
+            next = slot + 1;
+        }
+
+        int segment = slot >>> SEGMENT_BITS;
+        int index = slot & SEGMENT_MASK;
+        long now = System.currentTimeMillis();
+        keyId[segment][index] = -1;
+        x[segment][index] = 0;
+        y[segment][index] = 0;
+        orientation[segment][index] = 0;
+        commands[segment][index] = 0;
+        ++generation[segment][index];
+        started[segment][index] = now;
+        lastActivity[segment][index] = now;
+        rechargingSince[segment][index] = 0;
+        sockets[segment][index] = socket;
+        phase[segment][index] = SessionPhase.CONNECTED;
+        return slot;
+    }
+
+    /**
+     * Returns slot back for reuse.
+     *
+     * @param slot Slot index obtained from acquire.
+     */
+    public synchronized void release(int slot) {
+        phase[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = SessionPhase.CLOSED;
+        sockets[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * @return Number of sessions holding slot.
+     */
+    public synchronized int active() {
+        return next - freeCount;
+    }
+
+    /**
+     * Collects view of all open sessions matching filter, reads arrays without locking.
+     *
+     * @param filter Condition on sessions.
+     * @return List of matching sessions.
+     */
+    public List<SessionInfo> snapshot(Predicate<SessionInfo> filter) {
+        List<SessionInfo> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        int high = next;
+        for (int segment = 0; segment <= (high - 1) >>> SEGMENT_BITS && high > 0; ++segment) {
+            byte[] phases = phase[segment];
+            if (phases == null || sockets[segment] == null) continue; //segment being allocated
+            int end = Math.min(SEGMENT_SIZE, high - (segment << SEGMENT_BITS));
+            for (int index = 0; index < end; ++index) {
+                int state = phases[index];
+                if (state == SessionPhase.CLOSED) continue;
+                long recharging = rechargingSince[segment][index];
+                SessionInfo info = new SessionInfo((segment << SEGMENT_BITS) | index, generation[segment][index], state,
+                        keyId[segment][index], x[segment][index], y[segment][index], ORIENTATIONS[orientation[segment][index]],
+                        commands[segment][index], now - started[segment][index], now - lastActivity[segment][index],
+                        recharging == 0 ? 0 : now - recharging);
+                if (filter.test(info)) result.add(info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forcibly closes session socket - blocked session thread fails on its next read and releases the slot.
+     *
+     * @param slot       Session slot.
+     * @param generation Generation of slot from snapshot, protects against closing recycled slot.
+     * @return True if session was found and closed.
+     */
+    public synchronized boolean evict(int slot, int generation) {
+        if (slot < 0 || slot >= next) return false;
+        int segment = slot >>> SEGMENT_BITS;
+        int index = slot & SEGMENT_MASK;
+        Socket socket = sockets[segment][index];
+        if (socket == null || this.generation[segment][index] != generation) return false;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            //closed anyway
+        }
+        return true;
+    }
+
+    /**
+     * @param slot Session slot.
+     * @return True if session socket was not closed - e.g. by eviction.
+     */
+    public boolean isOpen(int slot) {
+        Socket socket = sockets[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+        return socket != null && !socket.isClosed();
+    }
+
+    /**
+     * Clears navigation state of slot for new mission on same connection.
+     *
+     * @param slot Session slot.
+     */
+    public void resetNavigation(int slot) {
+        setPosition(slot, 0, 0);
+        orientation[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = 0;
+    }
+
+    /**
+     * Counts command sent to robot.
+     *
+     * @param slot Session slot.
+     */
+    public void countCommand(int slot) {
+        ++commands[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+        lastActivity[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = System.currentTimeMillis();
+    }
+
+    public int getCommands(int slot) {
+        return commands[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+    }
+
+    /**
+     * Marks received message.
+     *
+     * @param slot Session slot.
+     */
+    public void touch(int slot) {
+        lastActivity[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks start or end of recharging.
+     *
+     * @param slot       Session slot.
+     * @param recharging True when robot started recharging.
+     */
+    public void setRecharging(int slot, boolean recharging) {
+        rechargingSince[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = recharging ? System.currentTimeMillis() : 0;
+    }
+
+    public int getGeneration(int slot) {
+        return generation[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+    }
+
+    public int getKeyId(int slot) {
+        return keyId[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+    }
+
+    public void setKeyId(int slot, int value) {
+        keyId[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = value;
+    }
+
+    public int getX(int slot) {
+        return x[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+    }
+
+    public int getY(int slot) {
+        return y[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+    }
+
+    public void setPosition(int slot, int x, int y) {
+        this.x[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = x;
+        this.y[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = y;
+    }
+
+    public RobotOrientation getOrientation(int slot) {
+        return ORIENTATIONS[orientation[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK]];
+    }
+
+    public void setOrientation(int slot, RobotOrientation value) {
+        byte ordinal = 0;
+        for (byte i = 1; i < ORIENTATIONS.length; ++i)
+            if (ORIENTATIONS[i] == value) ordinal = i;
+        orientation[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = ordinal;
+    }
+
+    public int getPhase(int slot) {
+        return phase[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK];
+    }
+
+    public void setPhase(int slot, int value) {
+        phase[slot >>> SEGMENT_BITS][slot & SEGMENT_MASK] = (byte) value;
+    }
+}
+
+/**
+ * Attributes CPU time and allocated bytes of session threads to sessions and protocol phases.
+ * Keeps log2 histograms per phase and list of most expensive sessions by CPU time.
+ */
+class SessionAccounting {
+    private static final int BUCKETS = 64;
+
+    /**
+     * Cost of one finished session - slot and generation identify session as in admin console
+     */
+    record SessionCost(int slot, int generation, int keyId, String outcome, long cpuNanos, long allocatedBytes, long wallNanos) {
+    }
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final AtomicLongArray[] cpuHistogram = new AtomicLongArray[SessionPhase.NAMES.length];
+    private final AtomicLongArray[] allocHistogram = new AtomicLongArray[SessionPhase.NAMES.length];
+    private final SessionCost[] top;
+    private int topCount; //guarded by top
+    private volatile long topThreshold; //cheapest cost in full top list
+
+    public SessionAccounting(int topSize) {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (threads.isThreadCpuTimeSupported()) threads.setThreadCpuTimeEnabled(true);
+        if (threads.isThreadAllocatedMemorySupported()) threads.setThreadAllocatedMemoryEnabled(true);
+        for (int i = 0; i < SessionPhase.NAMES.length; ++i) {
+            cpuHistogram[i] = new AtomicLongArray(BUCKETS);
+            allocHistogram[i] = new AtomicLongArray(BUCKETS);
+        }
+        top = new SessionCost[max(topSize, 1)];
+    }
+
+    /**
+     * @return CPU time of current thread in nanoseconds.
+     */
+    public long cpuTime() {
+        return threads.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * @return Bytes allocated by current thread so far.
+     */
+    public long allocated() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Adds cost of one phase into histograms. CLOSED phase row holds whole sessions.
+     *
+     * @param phase          Phase from SessionPhase constants.
+     * @param cpuNanos       CPU time spent in phase.
+     * @param allocatedBytes Bytes allocated in phase.
+     */
+    public void recordPhase(int phase, long cpuNanos, long allocatedBytes) {
+        cpuHistogram[phase].incrementAndGet(bucket(cpuNanos / 1000));
+        allocHistogram[phase].incrementAndGet(bucket(allocatedBytes));
+    }
+
+    /**
+     * Adds cost of whole session into histograms and top list.
+     *
+     * @param cost Session cost.
+     */
+    public void recordSession(SessionCost cost) {
+        recordPhase(SessionPhase.CLOSED, cost.cpuNanos(), cost.allocatedBytes());
+        if (cost.cpuNanos() <= topThreshold) return;
+
+        synchronized (top) {
+            int i = topCount < top.length ? topCount++ : top.length - 1;
+            if (i == top.length - 1 && top[i] != null && top[i].cpuNanos() >= cost.cpuNanos()) return;
+            //insert sorted from most expensive
+            while (i > 0 && top[i - 1].cpuNanos() < cost.cpuNanos()) {
+                top[i] = top[i - 1];
+                --i;
+            }
+            top[i] = cost;
+            if (topCount == top.length) topThreshold = top[top.length - 1].cpuNanos();
+        }
+    }
+
+    /**
+     * Forgets all recorded costs - e.g. of warm-up sessions.
+     */
+    public void reset() {
+        for (int i = 0; i < SessionPhase.NAMES.length; ++i) {
+            for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+                cpuHistogram[i].set(bucket, 0);
+                allocHistogram[i].set(bucket, 0);
+            }
+        }
+        synchronized (top) {
+            Arrays.fill(top, null);
+            topCount = 0;
+            topThreshold = 0;
+        }
+    }
+
+    /**
+     * @return Most expensive sessions ordered by CPU time.
+     */
+    public SessionCost[] getTop() {
+        synchronized (top) {
+            return Arrays.copyOf(top, topCount);
+        }
+    }
+
+    /**
+     * Formats histograms and top list.
+     *
+     * @return Human readable report.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Server: ACCOUNTING REPORT\n");
+        for (int phase = SessionPhase.AUTHENTICATING; phase < SessionPhase.NAMES.length; ++phase) {
+            String name = phase == SessionPhase.CLOSED ? "SESSION" : SessionPhase.NAMES[phase];
+            report.append(name).append(" cpu[us]: ").append(histogram(cpuHistogram[phase])).append('\n');
+            report.append(name).append(" alloc[B]: ").append(histogram(allocHistogram[phase])).append('\n');
+        }
+        report.append("TOP SESSIONS BY CPU:\n");
+        for (SessionCost cost : getTop()) {
+            report.append("  session ").append(cost.slot()).append('.').append(cost.generation()).append(" key ").append(cost.keyId())
+                    .append(" ").append(cost.outcome()).append(" cpu ").append(cost.cpuNanos() / 1000).append(" us")
+                    .append(" alloc ").append(cost.allocatedBytes()).append(" B")
+                    .append(" wall ").append(cost.wallNanos() / 1_000_000).append(" ms\n");
+        }
+        return report.toString();
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    private static String histogram(AtomicLongArray histogram) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < BUCKETS; ++i) {
+            long count = histogram.get(i);
+            if (count > 0) text.append(" <").append(i == 0 ? 1 : 1L << Math.min(i, 62)).append(':').append(count);
+        }
+        return text.length() == 0 ? " -" : text.toString();
+    }
+}
+
+/**
+ * Class representing one client-robot in its whole lifecycle - view over one slot of session table.
+ */
+class Robot {
+    private final SessionTable table;
+    private final int slot;
+
+    //authentication parameters
+    private String name;
+
+    public Robot(SessionTable table, int slot) {
+        this.table = table;
+        this.slot = slot;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String userName) {
+        name = userName;
+    }
+
+    public int getX() {
+        return table.getX(slot);
+    }
+
+    public int getY() {
+        return table.getY(slot);
+    }
+
+    public void setPosition(RobotPosition position) {
+        table.setPosition(slot, position.getX(), position.getY());
+    }
+
+    public boolean isAt(RobotPosition position) {
+        return getX() == position.getX() && getY() == position.getY();
+    }
+
+    public RobotOrientation getOrientation() {
+        return table.getOrientation(slot);
+    }
 
     public void setOrientation(RobotOrientation orientation) {
-        this.orientation = orientation;
+        table.setOrientation(slot, orientation);
     }
 
     public boolean reachedTarget() {
-        return position.isTarget();
+        return getX() == 0 && getY() == 0;
     }
 
     public void turnRight() {
-        orientation = orientation.turnRight();
+        setOrientation(getOrientation().turnRight());
     }
 
     public void turnLeft() {
-        orientation = orientation.turnLeft();
+        setOrientation(getOrientation().turnLeft());
     }
 
 }
@@ -551,25 +1838,37 @@ class Robot {
 class Puppeteer implements ServerMessageText {
     private final Robot robot;
     private final Messenger messenger;
-    private int ClientKey;
-    private int ServerKey;
-    private int hash;
+    private final SessionTable table;
+    private final int slot;
     private String secret;
 
+    //negotiated multi-mission capability
+    private boolean multiMission;
+
+    //pipelining - commands queued since last sync and last position replied by robot
+    private boolean pipelining;
+    private int pending;
+    private RobotPosition lastPosition;
+
 
-    public Puppeteer(Messenger messenger) {
-        this.robot = new Robot();
+    public Puppeteer(Messenger messenger, SessionTable table, int slot) {
+        this.robot = new Robot(table, slot);
         this.messenger = messenger;
+        this.table = table;
+        this.slot = slot;
     }
 
-    private int calculateHash() {
-        hash = 0;
-        for (var i : robot.getName().toCharArray())
-            hash += i;
-        return (hash *= 1000) % 65536;
+    /**
+     * Calculates hash from character sum of name - summed by messenger while name message was decoded.
+     *
+     * @param sum Sum of name characters.
+     * @return Name hash.
+     */
+    private int calculateHash(int sum) {
+        return (sum * 1000) % 65536;
     }
 
-    private int calculateConfHash(int key) {
+    private int calculateConfHash(int key, int ClientKey) {
         int ClientHash = (key - ClientKey + 65536) % 65536;
         System.out.println("Server: HASH FROM CLIENT CODE {" + ClientHash + "}");
 
@@ -585,20 +1884,26 @@ class Puppeteer implements ServerMessageText {
     boolean authenticate() throws IOException {
         //get name
         robot.setName(messenger.readName());
+        int nameSum = messenger.getLastSum();
 
         // key request + obtain
         messenger.send(new ServerMessage(SERVER_KEY_REQUEST));
-        int keyID = messenger.readKey();
-        ClientKey = AuthKey.AUTH_KEYS.get(keyID).getClientKey();
-        ServerKey = AuthKey.AUTH_KEYS.get(keyID).getServerKey();
+        KeyRegistry keys = KeyRegistry.get();
+        int keyID = messenger.readKey(keys);
+        table.setKeyId(slot, keyID);
+        int ClientKey = keys.getClientKey(keyID);
+        int ServerKey = keys.getServerKey(keyID);
 
         // send hash for check
-        hash = calculateHash();
+        int hash = calculateHash(nameSum);
         System.out.println("SERVER: KEY_ID {" + keyID + "} | CLIENT_KEY {" + ClientKey + "} | SERVER_KEY {" + ServerKey + "} | NAME {" + robot.getName() + "} | HASH {" + hash + "}");
         messenger.send(new ServerMessage(SERVER_CONFIRMATION, (hash + ServerKey) % 65536));
 
         //final check of robot hash
-        if (hash == calculateConfHash(messenger.readConfirmation())) {
+        if (hash == calculateConfHash(messenger.readConfirmation(), ClientKey)) {
+            pipelining = keys.hasFlag(keyID, KeyRegistry.PIPELINING);
+            if (pipelining) System.out.println("Server: PIPELINING negotiated for KEY_ID {" + keyID + "}");
+            multiMission = keys.hasFlag(keyID, KeyRegistry.MULTI_MISSION);
             messenger.send(new ServerMessage(SERVER_OK));
             return true;
         } else {
@@ -622,38 +1927,71 @@ class Puppeteer implements ServerMessageText {
 
         //moving loop
         while (!robot.reachedTarget()) {
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_MOVE));
-            RobotPosition newPosition = messenger.readMove();
+            command(SERVER_MOVE);
+            RobotPosition newPosition = sync();
 
             //turn on obstacle
-            if (newPosition.equals(robot.getPosition())) {
+            if (robot.isAt(newPosition)) {
                 System.out.println("Server: DETECTED OBSTACLE");
 
                 //detected if obstacle was on coordinate 0 for one direction
-                boolean zeroObstacle = robot.getPosition().getX() == 0 || robot.getPosition().getY() == 0;
+                boolean zeroObstacle = robot.getX() == 0 || robot.getY() == 0;
 
                 turn(); // TURN ROBOT
-                messenger.send(new ServerMessage(ServerMessageText.SERVER_MOVE)); //MAKE MOVE
+                command(SERVER_MOVE); //MAKE MOVE
                 if (zeroObstacle) turnInit(); // TURN BACK if move was from 0 position
-                newPosition = messenger.readMove();
+                newPosition = sync();
             }
 
             //set new position
             robot.setPosition(newPosition);
-            System.out.println("Server: Robot position " + robot.getPosition().getX() + " | " + robot.getPosition().getY());
+            System.out.println("Server: Robot position " + robot.getX() + " | " + robot.getY());
 
             //check if turn
-            if ((robot.getPosition().getX() == 0 && (robot.getOrientation() == RobotOrientation.XN || robot.getOrientation() == RobotOrientation.XP))
-                    || (robot.getPosition().getY() == 0 && (robot.getOrientation() == RobotOrientation.YN || robot.getOrientation() == RobotOrientation.YP))) {
+            if ((robot.getX() == 0 && (robot.getOrientation() == RobotOrientation.XN || robot.getOrientation() == RobotOrientation.XP))
+                    || (robot.getY() == 0 && (robot.getOrientation() == RobotOrientation.YN || robot.getOrientation() == RobotOrientation.YP))) {
                 if (!turn()) {
                     return false;
                 }
             }
 
         }
+        sync(); //replies of turns queued on target
         return true;
     }
 
+    /**
+     * Issues command whose reply position is not needed right away.
+     * Lock-step clients get command and reply immediately, pipelining clients get it queued until next sync.
+     *
+     * @param text Command text.
+     * @throws IOException In case of messaging error.
+     */
+    private void command(String text) throws IOException {
+        if (pipelining) {
+            messenger.queue(new ServerMessage(text));
+            ++pending;
+        } else {
+            messenger.send(new ServerMessage(text));
+            lastPosition = messenger.readMove();
+        }
+    }
+
+    /**
+     * Sends queued commands in one write and reads their replies in order.
+     *
+     * @return Position from last reply.
+     * @throws IOException In case of messaging error - remaining replies are not read, session ends.
+     */
+    private RobotPosition sync() throws IOException {
+        if (pending > 0) {
+            messenger.flush();
+            for (; pending > 0; --pending)
+                lastPosition = messenger.readMove();
+        }
+        return lastPosition;
+    }
+
     /**
      * Provide initial robot moving and orientation.
      *
@@ -677,11 +2015,10 @@ class Puppeteer implements ServerMessageText {
         //check if there was obstacle, if so, turn left and move again (can't determine which turn is better, so LEFT everytime - could be random as well)
         if (firstPosition.equals(secPosition)) {
             System.out.println("Server: TWO FIRST POSITIONS ARE SAME - Obstacle in orientation phase.");
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_TURN_LEFT));
-            firstPosition = messenger.readMove();
-            if (firstPosition.isTarget()) return true;
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_MOVE));
-            secPosition = messenger.readMove();
+            //robot does not move on turn - its reply repeats secPosition, so only reply of move matters
+            command(SERVER_TURN_LEFT);
+            command(SERVER_MOVE);
+            secPosition = sync();
             if (secPosition.isTarget()) return true;
         }
 
@@ -704,27 +2041,25 @@ class Puppeteer implements ServerMessageText {
      * @throws IOException In case of messaging error.
      */
     private boolean turn() throws IOException {
-        if (robot.getPosition().getY() >= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.XN ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.XP ||
-                robot.getPosition().getY() >= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.YN ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.YP
+        if (robot.getY() >= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.XN ||
+                robot.getY() <= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.XP ||
+                robot.getY() >= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.YN ||
+                robot.getY() <= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.YP
         ) {
             //TURN LEFT
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_TURN_LEFT));
-            messenger.readMove();
+            command(SERVER_TURN_LEFT);
             robot.turnLeft();
             System.out.println("Server: Robot reoriented to " + robot.getOrientation().toString());
             return true;
         }
 
-        if (robot.getPosition().getY() >= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.YN ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.YP ||
-                robot.getPosition().getY() >= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.XP ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.XN
+        if (robot.getY() >= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.YN ||
+                robot.getY() <= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.YP ||
+                robot.getY() >= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.XP ||
+                robot.getY() <= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.XN
         ) {
             //TURN RIGHT
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_TURN_RIGHT));
-            messenger.readMove();
+            command(SERVER_TURN_RIGHT);
             robot.turnRight();
             System.out.println("Server: Robot reoriented to " + robot.getOrientation().toString());
         }
@@ -738,26 +2073,24 @@ class Puppeteer implements ServerMessageText {
      * @throws IOException In case of messaging error.
      */
     private void turnInit() throws IOException {
-        if (robot.getPosition().getY() >= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.YP ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.YN ||
-                robot.getPosition().getY() >= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.XN ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.XP
+        if (robot.getY() >= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.YP ||
+                robot.getY() <= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.YN ||
+                robot.getY() >= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.XN ||
+                robot.getY() <= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.XP
         ) {
             //TURN LEFT
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_TURN_LEFT));
-            messenger.readMove();
+            command(SERVER_TURN_LEFT);
             robot.turnLeft();
             System.out.println("Server: Robot Oriented to " + robot.getOrientation().toString());
         }
 
-        if (robot.getPosition().getY() >= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.XP ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.XN ||
-                robot.getPosition().getY() >= 0 && robot.getPosition().getX() <= 0 && robot.getOrientation() == RobotOrientation.YP ||
-                robot.getPosition().getY() <= 0 && robot.getPosition().getX() >= 0 && robot.getOrientation() == RobotOrientation.YN
+        if (robot.getY() >= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.XP ||
+                robot.getY() <= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.XN ||
+                robot.getY() >= 0 && robot.getX() <= 0 && robot.getOrientation() == RobotOrientation.YP ||
+                robot.getY() <= 0 && robot.getX() >= 0 && robot.getOrientation() == RobotOrientation.YN
         ) {
             //TURN RIGHT
-            messenger.send(new ServerMessage(ServerMessageText.SERVER_TURN_RIGHT));
-            messenger.readMove();
+            command(SERVER_TURN_RIGHT);
             robot.turnRight();
             System.out.println("Server: Robot Oriented to " + robot.getOrientation().toString());
         }
@@ -805,6 +2138,320 @@ class Puppeteer implements ServerMessageText {
     public String getSecret() {
         return secret;
     }
+
+    /**
+     * @return True if client negotiated pipelined commands.
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * @return True if client negotiated more missions on this connection.
+     */
+    public boolean isMultiMission() {
+        return multiMission;
+    }
+
+    /**
+     * Starts new mission on authenticated connection - announces it by OK and forgets robot navigation state.
+     *
+     * @throws IOException In case of messaging error.
+     */
+    public void newMission() throws IOException {
+        messenger.send(new ServerMessage(SERVER_OK));
+        table.resetNavigation(slot);
+        secret = null;
+        pending = 0;
+        lastPosition = null;
+    }
+}
+
+/**
+ * Scripted robot-client speaking the client side of protocol in 2D field with obstacles.
+ * Used for warm-up of server code paths and for measuring server behaviour.
+ */
+class SyntheticRobot implements Runnable {
+    //scenario types
+    static final int NORMAL = 0;
+    static final int RECHARGING = 1;
+    static final int BAD_KEY = 2;
+    static final int LOGIN_FAILED = 3;
+    static final int SYNTAX_ERROR = 4;
+    static final int LOGIC_ERROR = 5;
+    static final int SCENARIOS = 6;
+
+    private static final int MAX_COMMANDS = 300;
+    private static final int FIELD = 7;
+
+    private final Socket socket;
+    private final int scenario;
+    private final Random random;
+    private final Set<RobotPosition> obstacles = new HashSet<>();
+    private final List<RobotPosition> path = new ArrayList<>();
+    private int x;
+    private int y;
+    private int dx;
+    private int dy;
+    private int commands;
+    private int missions;
+    private boolean completed;
+    private String ending = "CLOSED";
+    private final long[] roundTrips = new long[MAX_COMMANDS + 1];
+    private int roundTripCount;
+    private long replySent;
+
+    public SyntheticRobot(Socket socket, int scenario, long seed) {
+        this.socket = socket;
+        this.scenario = scenario;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs whole robot lifecycle, any communication error just ends the session.
+     */
+    @Override
+    public void run() {
+        try (Reader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
+            initField();
+            if (authenticate(reader, writer))
+                navigate(reader, writer);
+        } catch (IOException ignored) {
+            //session ended by server or by broken connection
+        }
+    }
+
+    /**
+     * @return True if robot got LOGOUT after delivering secret.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return How session ended - LOGOUT, LIMIT, server error message, or CLOSED when server closed connection silently (e.g. timeout).
+     */
+    public String getEnding() {
+        return ending;
+    }
+
+    /**
+     * @return Number of delivered secrets.
+     */
+    public int getMissions() {
+        return missions;
+    }
+
+    /**
+     * @return Number of commands received after authentication.
+     */
+    public int getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return Positions replied to navigation commands in order.
+     */
+    public List<RobotPosition> getPath() {
+        return List.copyOf(path);
+    }
+
+    /**
+     * @return Nanoseconds from sending reply to receiving next navigation command, one per command.
+     */
+    public long[] getRoundTrips() {
+        return Arrays.copyOf(roundTrips, roundTripCount);
+    }
+
+    private void initField() {
+        dx = 0;
+        dy = 0;
+        obstacles.clear();
+        do {
+            x = random.nextInt(2 * FIELD + 1) - FIELD;
+            y = random.nextInt(2 * FIELD + 1) - FIELD;
+        } while (x == 0 && y == 0);
+
+        switch (random.nextInt(4)) {
+            case 0 -> dx = 1;
+            case 1 -> dx = -1;
+            case 2 -> dy = 1;
+            default -> dy = -1;
+        }
+
+        //single cell obstacles, never on target or start
+        for (int i = 0; i < FIELD * 2; ++i) {
+            RobotPosition obstacle = new RobotPosition(random.nextInt(2 * FIELD + 1) - FIELD, random.nextInt(2 * FIELD + 1) - FIELD);
+            if (!obstacle.isTarget() && !obstacle.equals(new RobotPosition(x, y)))
+                obstacles.add(obstacle);
+        }
+    }
+
+    private boolean authenticate(Reader reader, Writer writer) throws IOException {
+        StringBuilder name = new StringBuilder("Robot ");
+        for (int i = random.nextInt(8); i > 0; --i)
+            name.append((char) ('a' + random.nextInt(26)));
+        send(writer, name.toString());
+
+        if (!readFrame(reader).equals(ServerMessageText.SERVER_KEY_REQUEST)) return false;
+        KeyRegistry keys = KeyRegistry.get();
+        if (scenario == BAD_KEY) {
+            int keyID = random.nextInt(KeyRegistry.MAX_KEYS);
+            while (keys.contains(keyID) && keys.size() < KeyRegistry.MAX_KEYS)
+                keyID = random.nextInt(KeyRegistry.MAX_KEYS);
+            send(writer, "" + keyID);
+            ending = readFrame(reader);
+            return false;
+        }
+        int[] ids = keys.ids();
+        if (ids.length == 0) {
+            ending = "NO KEYS";
+            return false;
+        }
+        int keyID = ids[random.nextInt(ids.length)];
+        send(writer, "" + keyID);
+
+        readFrame(reader); //server confirmation
+        int hash = 0;
+        for (var c : name.toString().toCharArray())
+            hash += c;
+        hash = (hash * 1000) % 65536;
+        int confirmation = (hash + keys.getClientKey(keyID)) % 65536;
+
+        if (scenario == LOGIN_FAILED) confirmation = (confirmation + 1) % 65536;
+        send(writer, scenario == SYNTAX_ERROR ? confirmation + "x" : "" + confirmation);
+
+        ending = readFrame(reader);
+        return ending.equals(ServerMessageText.SERVER_OK);
+    }
+
+    private void navigate(Reader reader, Writer writer) throws IOException {
+        ending = "CLOSED";
+        while (commands++ < MAX_COMMANDS) {
+            String reply;
+            String command = readFrame(reader);
+            if (replySent != 0) roundTrips[roundTripCount++] = System.nanoTime() - replySent;
+
+            switch (command) {
+                case ServerMessageText.SERVER_MOVE -> {
+                    if (!obstacles.contains(new RobotPosition(x + dx, y + dy))) {
+                        x += dx;
+                        y += dy;
+                    }
+                    reply = "OK " + x + " " + y;
+                    path.add(new RobotPosition(x, y));
+                }
+                case ServerMessageText.SERVER_TURN_LEFT -> {
+                    int d = dx;
+                    dx = -dy;
+                    dy = d;
+                    reply = "OK " + x + " " + y;
+                    path.add(new RobotPosition(x, y));
+                }
+                case ServerMessageText.SERVER_TURN_RIGHT -> {
+                    int d = dx;
+                    dx = dy;
+                    dy = -d;
+                    reply = "OK " + x + " " + y;
+                    path.add(new RobotPosition(x, y));
+                }
+                case ServerMessageText.SERVER_PICK_UP -> {
+                    ++missions;
+                    reply = "Secret of robot at " + x + " " + y;
+                }
+                case ServerMessageText.SERVER_OK -> {
+                    initField(); //next mission on same connection
+                    continue;
+                }
+                case ServerMessageText.SERVER_LOGOUT -> {
+                    completed = true;
+                    ending = command;
+                    return;
+                }
+                default -> {
+                    ending = command; //error messages from server
+                    return;
+                }
+            }
+
+            if (scenario == RECHARGING && random.nextInt(10) == 0) {
+                send(writer, "RECHARGING");
+                sleep();
+                send(writer, "FULL POWER");
+            }
+            if (scenario == LOGIC_ERROR && commands == 3) {
+                send(writer, "FULL POWER");
+            }
+            send(writer, reply);
+            replySent = System.nanoTime();
+        }
+        ending = "LIMIT";
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(1 + random.nextInt(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(Writer writer, String text) throws IOException {
+        writer.write(text + "\u0007\u0008");
+        writer.flush();
+    }
+
+    private String readFrame(Reader reader) throws IOException {
+        StringBuilder frame = new StringBuilder();
+        while (true) {
+            int in = reader.read();
+            if (in < 0) throw new EOFException("Robot: connection closed");
+            if (in == '\u0008' && frame.length() > 0 && frame.charAt(frame.length() - 1) == '\u0007') {
+                frame.setLength(frame.length() - 1);
+                return frame.toString();
+            }
+            frame.append((char) in);
+        }
+    }
+}
+
+/**
+ * Runs synthetic robot sessions through real Messenger and Puppeteer code on loopback,
+ * so production traffic gets already compiled hot paths.
+ */
+class WarmUp {
+
+    private WarmUp() {
+    }
+
+    /**
+     * Runs given number of sessions cycling through all scenarios.
+     *
+     * @param sessions Number of synthetic sessions.
+     * @return Number of sessions finished with LOGOUT.
+     * @throws IOException If loopback socket cannot be opened.
+     */
+    static int run(int sessions) throws IOException {
+        int completed = 0;
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            for (int i = 0; i < sessions; ++i) {
+                try (Socket client = new Socket(InetAddress.getLoopbackAddress(), ss.getLocalPort());
+                     Socket server = ss.accept()) {
+                    Thread service = new Thread(new Server.Service(server));
+                    service.start();
+                    SyntheticRobot robot = new SyntheticRobot(client, i % SyntheticRobot.SCENARIOS, i);
+                    robot.run(); //closes client socket at the end
+                    service.join();
+                    if (robot.isCompleted()) ++completed;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return completed;
+    }
 }
 
 //**********************************************************************************************************************
@@ -814,28 +2461,173 @@ class Puppeteer implements ServerMessageText {
  */
 public class Server {
 
+    //flips when warm-up is done and listener accepts connections
+    private static volatile boolean ready;
+
+    //set once listener stopped accepting for shutdown - running sessions finish without starting new missions
+    private static volatile boolean draining;
+
+    //state of all connected robots
+    static final SessionTable SESSIONS = new SessionTable(ServerConfig.MAX_SESSIONS);
+
+    //socket options for robot connections
+    static final SocketProfile SOCKET_PROFILE = SocketProfile.forName(ServerConfig.SOCKET_PROFILE);
+
+    //optional progress-aware scheduling of session steps
+    static final ProgressScheduler SCHEDULER = ServerConfig.SCHEDULER_PERMITS > 0 ? new ProgressScheduler(SESSIONS,
+            ServerConfig.SCHEDULER_PERMITS, ServerConfig.SCHEDULER_HANDSHAKE_WAIT, ServerConfig.SCHEDULER_MAX_WAITING) : null;
+
+    //optional CPU and allocation accounting of sessions
+    static final SessionAccounting COSTS = ServerConfig.ACCOUNTING ? new SessionAccounting(ServerConfig.ACCOUNTING_TOP) : null;
+
     public static void main(String[] args) throws InterruptedException {
 
-        Listener listener = new Listener(1111);
+        //key pairs from configuration
+        if (ServerConfig.KEYS_FILE != null) {
+            Path keysFile = Path.of(ServerConfig.KEYS_FILE);
+            try {
+                KeyRegistry.install(KeyRegistry.load(keysFile));
+                System.out.println("Server: KEYS LOADED - " + KeyRegistry.get().size() + " pairs from " + keysFile);
+            } catch (IOException e) {
+                System.out.println(e.getMessage() + " - using built-in keys");
+            }
+            if (ServerConfig.KEYS_RELOAD_INTERVAL > 0)
+                KeyRegistry.watch(keysFile, ServerConfig.KEYS_RELOAD_INTERVAL);
+        }
+
+        //socket activation - take over listening socket of previous instance or service manager
+        //port is bound before warm-up, so robots connecting meanwhile wait in backlog instead of being refused
+        ServerSocket inherited = inheritedServerSocket();
+        Listener listener = inherited != null ? new Listener(inherited, SOCKET_PROFILE) : new Listener(ServerConfig.PORT, SOCKET_PROFILE);
+
+        //on shutdown stop accepting and let running sessions finish
+        //one hook - JVM runs hooks concurrently, report must include sessions finished during drain
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            listener.drain(ServerConfig.DRAIN_TIMEOUT);
+            if (COSTS != null) System.out.println(COSTS.report());
+        }));
+
+        //local admin console for session inspection and eviction
+        if (ServerConfig.ADMIN_PORT > 0) {
+            Thread t_admin = new Thread(new AdminListener(ServerConfig.ADMIN_PORT), "admin-listener");
+            t_admin.setDaemon(true);
+            t_admin.start();
+        }
+
+        //run synthetic sessions before accepting real robots - listener is ready only after that
+        if (ServerConfig.WARMUP_SESSIONS > 0) {
+            try {
+                long start = System.nanoTime();
+                int completed = WarmUp.run(ServerConfig.WARMUP_SESSIONS);
+                System.out.println("Server: WARM-UP finished - " + completed + "/" + ServerConfig.WARMUP_SESSIONS
+                        + " sessions completed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                System.out.println("Server: WARM-UP failed - " + e.getMessage());
+            }
+            //synthetic sessions must not show in production metrics
+            if (COSTS != null) COSTS.reset();
+            if (SCHEDULER != null) SCHEDULER.resetMetrics();
+        }
+
         Thread t_listener = new Thread(listener);
         t_listener.start();
         t_listener.join();
     }
 
+    /**
+     * Obtains listening socket passed by process which started this JVM.
+     *
+     * @return Inherited server socket or null if there is none.
+     */
+    private static ServerSocket inheritedServerSocket() {
+        try {
+            Channel channel = System.inheritedChannel();
+            if (channel instanceof ServerSocketChannel serverChannel) {
+                serverChannel.configureBlocking(true);
+                System.out.println("Server: INHERITED LISTENING SOCKET " + serverChannel.getLocalAddress());
+                return serverChannel.socket();
+            }
+        } catch (IOException | SecurityException e) {
+            System.out.println("Server: INHERITED CHANNEL NOT USABLE - " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return True if server finished warm-up and accepts connections.
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return True if server is shutting down and waits for running sessions.
+     */
+    public static boolean isDraining() {
+        return draining;
+    }
+
     /**
      * Class providing listener for creating connection with robots-clients
      */
     static class Listener implements Runnable {
         private ServerSocket ss;
+        private final SocketProfile profile;
 
-        public Listener(int port) {
+        public Listener(int port, SocketProfile profile) {
+            this.profile = profile;
             try {
-                ss = new ServerSocket(port);
+                ss = new ServerSocket();
+                profile.applyListening(ss);
+                if (ServerConfig.REUSE_PORT && ss.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT))
+                    ss.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                ss.bind(new InetSocketAddress(port), profile.getBacklog());
+                System.out.println("Server: SOCKET PROFILE " + profile);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
+        /**
+         * Creates listener on already bound socket - e.g. inherited from previous instance.
+         *
+         * @param ss      Bound server socket.
+         * @param profile Socket options for accepted robot sockets.
+         */
+        public Listener(ServerSocket ss, SocketProfile profile) {
+            this.ss = ss;
+            this.profile = profile;
+            System.out.println("Server: SOCKET PROFILE " + profile);
+        }
+
+        /**
+         * Stops accepting new robots and waits until running sessions finish or timeout elapses.
+         * Closing socket drops connections waiting in its backlog - with inherited socket shared with next instance
+         * they stay queued there, with own SO_REUSEPORT socket they are reset.
+         *
+         * @param timeout Max waiting time in ms.
+         */
+        public void drain(long timeout) {
+            draining = true;
+            ready = false;
+            System.out.println("Server: NOT READY - draining");
+            try {
+                if (ss != null) ss.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            long deadline = System.currentTimeMillis() + timeout;
+            System.out.println("Server: DRAINING " + SESSIONS.active() + " sessions");
+            try {
+                while (SESSIONS.active() > 0 && System.currentTimeMillis() < deadline)
+                    Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Server: DRAIN finished - " + SESSIONS.active() + " sessions left");
+        }
+
         /**
          * Method in endless loop listening on port.
          * If there is a connection request, creates new service in new thread for further communication.
@@ -846,30 +2638,213 @@ public class Server {
                 System.out.println("-----------------------------------------------------");
                 System.out.println("Server - service started");
                 System.out.println("-----------------------------------------------------");
+                ready = true;
+                System.out.println("Server: READY - accepting robots on " + ss.getLocalSocketAddress());
 
                 while (true) { //endless loop
                     Socket socket = ss.accept();
-                    Service service = new Service(socket);
+                    //shed new robots first under overload
+                    if (SCHEDULER != null && SCHEDULER.shedAccept()) {
+                        socket.close();
+                        continue;
+                    }
+                    Service service = new Service(socket, profile);
                     (new Thread(service)).start();
                 }
             } catch (Exception ex) {
+                ready = false;
                 System.out.println("-----------------------------------------------------");
-                System.out.println("Server - service exception reached");
+                System.out.println(draining ? "Server - service stopped for drain" : "Server - service exception reached");
                 System.out.println("-----------------------------------------------------");
             }
         }
     }
 
+    /**
+     * Class providing line based admin console on loopback - lists, filters and evicts sessions.
+     * Commands: list [filter...], count [filter...], kill ID|filter..., stats, ready, help, quit.
+     * Filter is field, operator and value with optional s or ms unit, spaces are optional - e.g. phase=MOVING,
+     * commands>500, recharging > 4 s, idle>3000ms. Each connection is served in its own thread.
+     */
+    static class AdminListener implements Runnable {
+        //idle admin connection is closed after this time in ms
+        private static final int IDLE_TIMEOUT = 300000;
+
+        //one filter condition - field, operator and either number with optional unit or word
+        private static final Pattern CONDITION = Pattern.compile("\\s*(\\w+)\\s*([<>=])\\s*(?:(-?\\d+)\\s*(ms|s)?|([A-Za-z]+))(?=\\s|$)");
+
+        private ServerSocket ss;
+
+        public AdminListener(int port) {
+            try {
+                ss = new ServerSocket(port, 5, InetAddress.getLoopbackAddress());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Accepts admin connections, so one operator never blocks another.
+         */
+        @Override
+        public void run() {
+            if (ss == null) return;
+            System.out.println("Server: ADMIN CONSOLE on " + ss.getLocalSocketAddress());
+            while (!ss.isClosed()) {
+                try {
+                    Socket socket = ss.accept();
+                    Thread console = new Thread(() -> serve(socket), "admin-console");
+                    console.setDaemon(true);
+                    console.start();
+                } catch (IOException e) {
+                    System.out.println("Server: ADMIN CONSOLE exception - " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Executes commands of one admin connection until quit, end of stream or idle timeout.
+         *
+         * @param socket Admin connection.
+         */
+        private static void serve(Socket socket) {
+            try (socket;
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                 PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
+                socket.setSoTimeout(IDLE_TIMEOUT);
+                String line;
+                while ((line = reader.readLine()) != null && !line.trim().equals("quit")) {
+                    writer.println(execute(line.trim()));
+                }
+            } catch (SocketTimeoutException e) {
+                System.out.println("Server: ADMIN CONSOLE idle connection closed");
+            } catch (IOException e) {
+                System.out.println("Server: ADMIN CONSOLE exception - " + e.getMessage());
+            }
+        }
+
+        /**
+         * Executes one admin command.
+         *
+         * @param line Command line.
+         * @return Command output.
+         */
+        static String execute(String line) {
+            String[] words = line.split("\\s+");
+            try {
+                switch (words[0]) {
+                    case "list" -> {
+                        StringBuilder out = new StringBuilder();
+                        List<SessionTable.SessionInfo> sessions = SESSIONS.snapshot(filter(words, 1));
+                        for (SessionTable.SessionInfo info : sessions)
+                            out.append(info).append('\n');
+                        return out.append(sessions.size()).append(" sessions").toString();
+                    }
+                    case "count" -> {
+                        return SESSIONS.snapshot(filter(words, 1)).size() + " sessions";
+                    }
+                    case "kill" -> {
+                        int killed = 0;
+                        if (words.length == 2 && words[1].matches("\\d+\\.\\d+")) {
+                            String[] id = words[1].split("\\.");
+                            if (SESSIONS.evict(Integer.parseInt(id[0]), Integer.parseInt(id[1]))) ++killed;
+                        } else if (words.length > 1) {
+                            for (SessionTable.SessionInfo info : SESSIONS.snapshot(filter(words, 1)))
+                                if (SESSIONS.evict(info.slot(), info.generation())) ++killed;
+                        }
+                        return killed + " sessions closed";
+                    }
+                    case "ready" -> {
+                        return isReady() ? "ready" : isDraining() ? "not ready - draining" : "not ready";
+                    }
+                    case "stats" -> {
+                        String stats = "active " + SESSIONS.active() + " | ready " + isReady() + " | draining " + isDraining() + " | keys " + KeyRegistry.get().size();
+                        if (SCHEDULER != null) stats += '\n' + SCHEDULER.toString();
+                        return COSTS != null ? stats + '\n' + COSTS.report() : stats;
+                    }
+                    case "help", "" -> {
+                        return "list [filter...] | count [filter...] | kill ID|filter... | stats | ready | quit\n"
+                                + "filter: FIELD (=|<|>) VALUE [ms|s], e.g. 'recharging > 4 s' 'phase=MOVING' 'commands>500'\n"
+                                + "fields: phase (= only) key x y commands age idle recharging, times in ms unless s is given";
+                    }
+                    default -> {
+                        return "unknown command " + words[0];
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                return "bad filter - " + e.getMessage();
+            }
+        }
+
+        /**
+         * Builds session filter from words - all conditions must hold. Words are joined, so condition may span more words.
+         *
+         * @param words Command words.
+         * @param from  Index of first word of conditions.
+         * @return Filter predicate.
+         * @throws IllegalArgumentException If condition is not valid.
+         */
+        static Predicate<SessionTable.SessionInfo> filter(String[] words, int from) {
+            Predicate<SessionTable.SessionInfo> filter = info -> true;
+            String conditions = String.join(" ", Arrays.asList(words).subList(Math.min(from, words.length), words.length));
+            Matcher m = CONDITION.matcher(conditions);
+            for (int position = 0; position < conditions.length(); position = m.end()) {
+                m.region(position, conditions.length());
+                if (!m.lookingAt()) throw new IllegalArgumentException(conditions.substring(position).trim());
+                String condition = m.group().trim();
+                String field = m.group(1);
+                char op = m.group(2).charAt(0);
+
+                if (field.equals("phase")) {
+                    String phase = m.group(5) == null ? null : m.group(5).toUpperCase();
+                    if (op != '=' || !Arrays.asList(SessionPhase.NAMES).contains(phase))
+                        throw new IllegalArgumentException(condition);
+                    filter = filter.and(info -> SessionPhase.NAMES[info.phase()].equals(phase));
+                    continue;
+                }
+
+                if (m.group(3) == null) throw new IllegalArgumentException(condition);
+                long value = Long.parseLong(m.group(3)) * ("s".equals(m.group(4)) ? 1000 : 1);
+                ToLongFunction<SessionTable.SessionInfo> getter = switch (field) {
+                    case "key" -> SessionTable.SessionInfo::keyId;
+                    case "x" -> SessionTable.SessionInfo::x;
+                    case "y" -> SessionTable.SessionInfo::y;
+                    case "commands" -> SessionTable.SessionInfo::commands;
+                    case "age" -> SessionTable.SessionInfo::ageMs;
+                    case "idle" -> SessionTable.SessionInfo::idleMs;
+                    case "recharging" -> SessionTable.SessionInfo::rechargingMs;
+                    default -> throw new IllegalArgumentException(condition);
+                };
+                filter = filter.and(switch (op) {
+                    case '<' -> info -> getter.applyAsLong(info) < value;
+                    case '>' -> info -> getter.applyAsLong(info) > value;
+                    default -> info -> getter.applyAsLong(info) == value;
+                });
+            }
+            return filter;
+        }
+    }
+
     /**
      * Class providing all lifecycle process for one separated robot-client
      */
     static class Service implements Runnable {
         private final Socket socket;
+        private final SocketProfile profile;
         Puppeteer puppeteer;
 
+        //accounting counters at start of current phase
+        private long phaseCpu;
+        private long phaseAlloc;
+
 
         public Service(Socket socket) {
+            this(socket, SOCKET_PROFILE);
+        }
+
+        public Service(Socket socket, SocketProfile profile) {
             this.socket = socket;
+            this.profile = profile;
         }
 
         /**
@@ -877,38 +2852,160 @@ public class Server {
          */
         @Override
         public void run() {
+            int slot;
+            try {
+                slot = SESSIONS.acquire(socket);
+            } catch (IllegalStateException ex) {
+                System.out.println(ex.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+
+            SessionEvent session = new SessionEvent();
+            session.begin();
+            long sessionStart = System.nanoTime();
+            long sessionCpu = COSTS != null ? COSTS.cpuTime() : 0;
+            long sessionAlloc = COSTS != null ? COSTS.allocated() : 0;
+            PhaseEvent phase = null;
+            String outcome = "CLOSED";
+            int missions = 0;
+            Messenger messenger = null;
+
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                  PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
 
                 //set default timeout before cutting connection
                 socket.setSoTimeout(Timeouts.TIMEOUT);
+                profile.apply(socket);
 
                 //creates instance of messenger and puppeteer
-                Messenger messenger = new Messenger(reader, writer, socket);
-                puppeteer = new Puppeteer(messenger);
+                messenger = new Messenger(reader, writer, socket, SESSIONS, slot, SCHEDULER);
+                puppeteer = new Puppeteer(messenger, SESSIONS, slot);
 
                 //auth process
-                if (!puppeteer.authenticate())
+                phase = beginPhase(slot, SessionPhase.AUTHENTICATING);
+                if (!commitPhase(phase, slot, puppeteer.authenticate())) {
+                    outcome = "LOGIN FAILED";
                     return;
+                }
 
-                //moving process
-                if (!puppeteer.move())
-                    return;
+                do {
+                    //moving process
+                    phase = beginPhase(slot, SessionPhase.MOVING);
+                    if (!commitPhase(phase, slot, puppeteer.move()))
+                        return;
 
-                System.out.println("Server: Target reached!");
+                    System.out.println("Server: Target reached!");
 
-                // picking target message
-                if (!puppeteer.pick())
-                    return;
+                    // picking target message
+                    phase = beginPhase(slot, SessionPhase.PICKING);
+                    if (!commitPhase(phase, slot, puppeteer.pick()))
+                        return;
+                    phase = null;
 
-                System.out.println(puppeteer.getSecret());
+                    System.out.println(puppeteer.getSecret());
+                    ++missions;
+                    if (SCHEDULER != null) SCHEDULER.missionCompleted();
+                } while (nextMission(missions, sessionStart));
 
                 //robot-client logout
                 messenger.send(new ServerMessage(ServerMessageText.SERVER_LOGOUT));
+                outcome = "LOGOUT";
 
             } catch (Exception ex) {
                 System.out.println("Server: Service exception reached!");
+                outcome = "ERROR";
+                if (phase != null) commitPhase(phase, slot, false);
+                ProtocolErrorEvent error = new ProtocolErrorEvent();
+                if (error.shouldCommit()) {
+                    error.slot = slot;
+                    error.phase = SessionPhase.NAMES[SESSIONS.getPhase(slot)];
+                    error.keyId = SESSIONS.getKeyId(slot);
+                    error.message = ex.getMessage();
+                    error.commit();
+                }
+            } finally {
+                if (messenger != null) messenger.endStep();
+                if (session.shouldCommit()) {
+                    session.slot = slot;
+                    session.keyId = SESSIONS.getKeyId(slot);
+                    session.outcome = outcome;
+                    session.missions = missions;
+                    session.commit();
+                }
+                if (COSTS != null) {
+                    COSTS.recordSession(new SessionAccounting.SessionCost(slot, SESSIONS.getGeneration(slot), SESSIONS.getKeyId(slot), outcome,
+                            COSTS.cpuTime() - sessionCpu, COSTS.allocated() - sessionAlloc, System.nanoTime() - sessionStart));
+                }
+                SESSIONS.release(slot);
+            }
+        }
+
+        /**
+         * Decides about next mission on same connection and announces it to multi-mission client.
+         * No new mission starts while server drains.
+         *
+         * @param missions     Number of finished missions.
+         * @param sessionStart Session start from System.nanoTime.
+         * @return True if new mission started.
+         * @throws IOException In case of messaging error.
+         */
+        private boolean nextMission(int missions, long sessionStart) throws IOException {
+            if (!puppeteer.isMultiMission() || missions >= ServerConfig.MAX_MISSIONS
+                    || System.nanoTime() - sessionStart > ServerConfig.MISSIONS_TIMEOUT * 1_000_000L)
+                return false;
+            if (draining) {
+                System.out.println("Server: DRAINING - no new mission, logging out");
+                return false;
+            }
+            System.out.println("Server: NEW MISSION " + (missions + 1) + " on same connection");
+            puppeteer.newMission();
+            return true;
+        }
+
+        /**
+         * Moves session to next phase and starts its JFR event and accounting.
+         *
+         * @param slot  Session slot.
+         * @param phase Phase from SessionPhase constants.
+         * @return Started event.
+         */
+        private PhaseEvent beginPhase(int slot, int phase) {
+            SESSIONS.setPhase(slot, phase);
+            if (COSTS != null) {
+                phaseCpu = COSTS.cpuTime();
+                phaseAlloc = COSTS.allocated();
+            }
+            PhaseEvent event = new PhaseEvent();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Finishes phase JFR event with current robot state and records phase cost.
+         *
+         * @param event   Event started by beginPhase.
+         * @param slot    Session slot.
+         * @param success Result of phase.
+         * @return Result of phase.
+         */
+        private boolean commitPhase(PhaseEvent event, int slot, boolean success) {
+            if (COSTS != null)
+                COSTS.recordPhase(SESSIONS.getPhase(slot), COSTS.cpuTime() - phaseCpu, COSTS.allocated() - phaseAlloc);
+            event.end();
+            if (event.shouldCommit()) {
+                event.slot = slot;
+                event.phase = SessionPhase.NAMES[SESSIONS.getPhase(slot)];
+                event.keyId = SESSIONS.getKeyId(slot);
+                event.x = SESSIONS.getX(slot);
+                event.y = SESSIONS.getY(slot);
+                event.success = success;
+                event.commit();
             }
+            return success;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package B212.PSI.BIK;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdminListenerTest {
+
+    private static SessionTable.SessionInfo session(int phase, int x, int commands, long idleMs, long rechargingMs) {
+        return new SessionTable.SessionInfo(1, 1, phase, 2, x, 5, RobotOrientation.XP, commands, 10000, idleMs, rechargingMs);
+    }
+
+    private static Predicate<SessionTable.SessionInfo> filter(String line) {
+        return Server.AdminListener.filter(line.split("\\s+"), 1);
+    }
+
+    @Test
+    void secondsAndMillisecondsUnits() {
+        SessionTable.SessionInfo recharging = session(SessionPhase.MOVING, 0, 0, 0, 4500);
+        SessionTable.SessionInfo shortRecharging = session(SessionPhase.MOVING, 0, 0, 0, 4000);
+
+        for (String line : new String[]{"list recharging>4s", "list recharging > 4 s", "list recharging >4 s",
+                "list recharging>4000ms", "list recharging > 4000 ms", "list recharging>4000"}) {
+            assertTrue(filter(line).test(recharging), line);
+            assertFalse(filter(line).test(shortRecharging), line);
+        }
+    }
+
+    @Test
+    void operators() {
+        SessionTable.SessionInfo info = session(SessionPhase.MOVING, -3, 500, 3000, 0);
+
+        assertTrue(filter("list commands=500").test(info));
+        assertFalse(filter("list commands<500").test(info));
+        assertFalse(filter("list commands>500").test(info));
+        assertTrue(filter("list commands > 499").test(info));
+        assertTrue(filter("list commands < 501").test(info));
+        assertTrue(filter("list x=-3").test(info));
+        assertTrue(filter("list x < 0").test(info));
+        assertTrue(filter("list idle=3s").test(info));
+        assertTrue(filter("list key=2").test(info));
+        assertTrue(filter("list").test(info));
+    }
+
+    @Test
+    void phaseMatchesByName() {
+        SessionTable.SessionInfo moving = session(SessionPhase.MOVING, 0, 0, 0, 0);
+
+        assertTrue(filter("list phase=MOVING").test(moving));
+        assertTrue(filter("list phase = moving").test(moving));
+        assertFalse(filter("list phase=PICKING").test(moving));
+    }
+
+    @Test
+    void allConditionsMustHold() {
+        SessionTable.SessionInfo info = session(SessionPhase.MOVING, 0, 600, 0, 5000);
+
+        assertTrue(filter("kill commands>500 recharging>4s").test(info));
+        assertTrue(filter("kill commands > 500 recharging > 4 s phase=MOVING").test(info));
+        assertFalse(filter("kill commands > 500 recharging > 5 s").test(info));
+        assertFalse(filter("kill phase=PICKING commands>500").test(info));
+    }
+
+    @Test
+    void rejectsBadConditions() {
+        for (String line : new String[]{"list color=red", "list phase>1", "list phase=FLYING", "list idle>", "list key=abc",
+                "list idle>3h", "list commands>500 garbage", "list >5", "list commands 500"}) {
+            assertThrows(IllegalArgumentException.class, () -> filter(line), line);
+        }
+    }
+
+    @Test
+    void executeReportsBadFilter() {
+        assertTrue(Server.AdminListener.execute("count recharging > 4 s").endsWith("sessions"));
+        assertTrue(Server.AdminListener.execute("count idle>3h").startsWith("bad filter"));
+    }
+
+    @Test
+    void readinessAndDrainAreReported() {
+        assertEquals("not ready", Server.AdminListener.execute("ready"));
+        assertTrue(Server.AdminListener.execute("stats").contains("| ready false | draining false |"));
+    }
+}
@@ -0,0 +1,129 @@
+package B212.PSI.BIK;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs scripted robot missions through impairment proxy with each profile and reports
+ * p50/p99/p999 mission time together with failures - CLOSED ending means server cut connection by timeout.
+ * Arguments: [missions per profile] [concurrent robots] [profile names...]
+ */
+class ImpairmentHarness {
+
+    /**
+     * Result of missions run with one profile
+     */
+    record Result(ImpairmentProxy.Profile profile, long[] missionNanos, Map<String, Integer> endings) {
+
+        double percentile(double p) {
+            if (missionNanos.length == 0) return 0;
+            return missionNanos[Math.min(missionNanos.length - 1, (int) (p * missionNanos.length))] / 1_000_000.0;
+        }
+
+        int timeouts() {
+            return endings.getOrDefault("CLOSED", 0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-11s completed %5d | mission ms p50 %8.1f p99 %8.1f p999 %8.1f | timeouts %4d | endings %s",
+                    profile.name(), missionNanos.length, percentile(0.50), percentile(0.99), percentile(0.999), timeouts(), endings);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int missions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        ImpairmentProxy.Profile[] profiles = ImpairmentProxy.Profile.ALL;
+        if (args.length > 2) {
+            profiles = Arrays.stream(ImpairmentProxy.Profile.ALL)
+                    .filter(p -> Arrays.asList(args).subList(2, args.length).contains(p.name()))
+                    .toArray(ImpairmentProxy.Profile[]::new);
+        }
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); //mute server logging
+        try (ServerSocket ss = startServer()) {
+            for (ImpairmentProxy.Profile profile : profiles)
+                out.println(run(ss.getLocalPort(), profile, missions, concurrency));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Starts server accepting robots on loopback in background.
+     *
+     * @return Listening socket - closing it stops server.
+     * @throws IOException If server cannot listen.
+     */
+    static ServerSocket startServer() throws IOException {
+        ServerSocket ss = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread listener = new Thread(() -> {
+            while (!ss.isClosed()) {
+                try {
+                    new Thread(new Server.Service(ss.accept())).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "harness-listener");
+        listener.setDaemon(true);
+        listener.start();
+        return ss;
+    }
+
+    /**
+     * Runs missions through proxy with given profile.
+     *
+     * @param serverPort  Port of server.
+     * @param profile     Impairment profile.
+     * @param missions    Number of robots.
+     * @param concurrency Number of robots running at once.
+     * @return Measured result.
+     */
+    static Result run(int serverPort, ImpairmentProxy.Profile profile, int missions, int concurrency) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        try (ImpairmentProxy proxy = new ImpairmentProxy(serverPort, profile)) {
+            Future<?>[] robots = new Future<?>[missions];
+            long[] times = new long[missions];
+            String[] endings = new String[missions];
+            for (int i = 0; i < missions; ++i) {
+                int mission = i;
+                robots[i] = pool.submit(() -> {
+                    long start = System.nanoTime();
+                    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), proxy.getPort())) {
+                        socket.setTcpNoDelay(true);
+                        SyntheticRobot robot = new SyntheticRobot(socket, mission % 2 == 0 ? SyntheticRobot.NORMAL : SyntheticRobot.RECHARGING, mission);
+                        robot.run();
+                        times[mission] = robot.isCompleted() ? System.nanoTime() - start : -1;
+                        endings[mission] = robot.getEnding();
+                    } catch (IOException e) {
+                        times[mission] = -1;
+                        endings[mission] = "CONNECT FAILED";
+                    }
+                });
+            }
+            for (Future<?> robot : robots)
+                robot.get();
+
+            Map<String, Integer> counts = new TreeMap<>();
+            for (String ending : endings)
+                counts.merge(ending, 1, Integer::sum);
+            long[] completed = Arrays.stream(times).filter(t -> t >= 0).sorted().toArray();
+            return new Result(profile, completed, counts);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package B212.PSI.BIK;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local TCP proxy impairing traffic between robots and server - latency, jitter, bandwidth limit,
+ * byte level fragmentation and coalescing of frames. Every direction of every connection is impaired separately.
+ */
+class ImpairmentProxy implements AutoCloseable {
+
+    /**
+     * Impairment parameters, zero disables particular impairment.
+     *
+     * @param name          Profile name.
+     * @param latencyMs     One way delay added to every chunk.
+     * @param jitterMs      Max random delay added on top of latency, order of bytes is kept.
+     * @param bytesPerSec   Bandwidth limit.
+     * @param fragmentBytes Chunks are written in pieces of this size, each piece in its own segment.
+     * @param coalesceMs    Chunks arriving within this window are written together.
+     */
+    record Profile(String name, int latencyMs, int jitterMs, int bytesPerSec, int fragmentBytes, int coalesceMs) {
+        static final Profile CLEAN = new Profile("clean", 0, 0, 0, 0, 0);
+        static final Profile LAN = new Profile("lan", 1, 1, 0, 0, 0);
+        static final Profile WAN = new Profile("wan", 40, 20, 0, 0, 0);
+        static final Profile FRAGMENTED = new Profile("fragmented", 0, 0, 0, 1, 0);
+        static final Profile COALESCED = new Profile("coalesced", 5, 0, 0, 0, 20);
+        static final Profile SLOW_LINK = new Profile("slow-link", 20, 10, 2000, 3, 0);
+        static final Profile JITTERY = new Profile("jittery", 100, 300, 0, 0, 0);
+
+        static final Profile[] ALL = {CLEAN, LAN, WAN, FRAGMENTED, COALESCED, SLOW_LINK, JITTERY};
+    }
+
+    /**
+     * Bytes read from one side with time of their delivery to other side
+     */
+    private record Chunk(byte[] data, long deliverAt) {
+    }
+
+    private final ServerSocket ss;
+    private final InetAddress targetAddress;
+    private final int targetPort;
+    private final Profile profile;
+    private final Random random = new Random(42);
+
+    /**
+     * Starts proxy on ephemeral loopback port.
+     *
+     * @param targetPort Port of server on loopback.
+     * @param profile    Impairment profile.
+     * @throws IOException If proxy cannot listen.
+     */
+    ImpairmentProxy(int targetPort, Profile profile) throws IOException {
+        this.ss = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.targetAddress = InetAddress.getLoopbackAddress();
+        this.targetPort = targetPort;
+        this.profile = profile;
+        Thread acceptor = new Thread(this::accept, "proxy-" + profile.name());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return Port robots connect to.
+     */
+    int getPort() {
+        return ss.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        ss.close();
+    }
+
+    private void accept() {
+        while (!ss.isClosed()) {
+            try {
+                Socket client = ss.accept();
+                Socket server = new Socket(targetAddress, targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                AtomicInteger open = new AtomicInteger(2);
+                pipe(client, server, "up", open);
+                pipe(server, client, "down", open);
+            } catch (IOException e) {
+                return; //proxy closed
+            }
+        }
+    }
+
+    /**
+     * Starts reader and writer thread impairing one direction, sockets are closed when both directions ended.
+     */
+    private void pipe(Socket from, Socket to, String direction, AtomicInteger open) {
+        BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+        Chunk end = new Chunk(null, 0);
+
+        Thread reader = new Thread(() -> {
+            long lastDelivery = 0;
+            try {
+                InputStream in = from.getInputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    long delay = profile.latencyMs() + (profile.jitterMs() > 0 ? nextJitter() : 0);
+                    //keep order - chunk can not overtake previous one
+                    lastDelivery = Math.max(lastDelivery, System.nanoTime() + delay * 1_000_000L);
+                    queue.add(new Chunk(Arrays.copyOf(buffer, read), lastDelivery));
+                }
+            } catch (IOException ignored) {
+                //connection closed
+            }
+            queue.add(end);
+        }, "proxy-" + direction + "-reader");
+
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == end) break;
+                    sleepUntil(chunk.deliverAt());
+
+                    byte[] data = chunk.data();
+                    if (profile.coalesceMs() > 0) {
+                        //wait for more chunks and write them together
+                        long until = System.nanoTime() + profile.coalesceMs() * 1_000_000L;
+                        Chunk more;
+                        while ((more = queue.poll(Math.max(0, until - System.nanoTime()), TimeUnit.NANOSECONDS)) != null) {
+                            if (more == end) {
+                                write(out, data);
+                                return;
+                            }
+                            sleepUntil(more.deliverAt());
+                            byte[] joined = Arrays.copyOf(data, data.length + more.data().length);
+                            System.arraycopy(more.data(), 0, joined, data.length, more.data().length);
+                            data = joined;
+                        }
+                    }
+                    write(out, data);
+                }
+            } catch (IOException | InterruptedException ignored) {
+                //connection closed
+            } finally {
+                try {
+                    to.shutdownOutput();
+                } catch (IOException ignored) {
+                    //already closed
+                }
+                if (open.decrementAndGet() == 0) close(from, to);
+            }
+        }, "proxy-" + direction + "-writer");
+
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private synchronized int nextJitter() {
+        return random.nextInt(profile.jitterMs() + 1);
+    }
+
+    /**
+     * Writes data respecting fragmentation and bandwidth limit.
+     */
+    private void write(OutputStream out, byte[] data) throws IOException, InterruptedException {
+        int piece = profile.fragmentBytes() > 0 ? profile.fragmentBytes() : data.length;
+        for (int offset = 0; offset < data.length; offset += piece) {
+            int length = Math.min(piece, data.length - offset);
+            if (profile.bytesPerSec() > 0)
+                Thread.sleep(Math.max(1, length * 1000L / profile.bytesPerSec()));
+            out.write(data, offset, length);
+            out.flush();
+            if (profile.fragmentBytes() > 0 && profile.bytesPerSec() == 0)
+                Thread.sleep(1); //let piece leave as its own segment
+        }
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private static void close(Socket... sockets) {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                //already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package B212.PSI.BIK;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRegistryTest {
+
+    private Path file;
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        if (file != null) Files.deleteIfExists(file);
+    }
+
+    private KeyRegistry load(String content) throws IOException {
+        file = Files.createTempFile("keys", ".txt");
+        Files.writeString(file, content);
+        return KeyRegistry.load(file);
+    }
+
+    @Test
+    void loadsPairsWithFlags() throws IOException {
+        KeyRegistry keys = load("""
+                # id server client flags
+                0 23019 32037
+
+                7 100 200 pipeline   # trailing comment
+                42 300 400 pipeline,multi
+                """);
+
+        assertEquals(3, keys.size());
+        assertArrayEquals(new int[]{0, 7, 42}, keys.ids());
+        assertTrue(keys.contains(7));
+        assertFalse(keys.contains(1));
+        assertFalse(keys.contains(43));
+        assertFalse(keys.contains(-1));
+        assertEquals(100, keys.getServerKey(7));
+        assertEquals(200, keys.getClientKey(7));
+
+        assertFalse(keys.hasFlag(0, KeyRegistry.PIPELINING));
+        assertFalse(keys.hasFlag(0, KeyRegistry.MULTI_MISSION));
+        assertTrue(keys.hasFlag(7, KeyRegistry.PIPELINING));
+        assertFalse(keys.hasFlag(7, KeyRegistry.MULTI_MISSION));
+        assertTrue(keys.hasFlag(42, KeyRegistry.PIPELINING));
+        assertTrue(keys.hasFlag(42, KeyRegistry.MULTI_MISSION));
+    }
+
+    @Test
+    void reportsBadLineNumber() {
+        String[] badLines = {
+                "1 100",                 //missing client key
+                "1 100 200 multi extra", //too many fields
+                "x 100 200",             //not a number
+                "1000 100 200",          //key ID out of 3 digits
+                "1 65536 200",           //key out of range
+                "1 100 -1",              //negative key
+                "1 100 200 turbo",       //unknown flag
+        };
+        for (String line : badLines) {
+            IOException e = assertThrows(IOException.class, () -> load("0 1 2\n" + line + "\n"), line);
+            assertTrue(e.getMessage().contains("LINE 2"), e.getMessage());
+        }
+    }
+
+    @Test
+    void rejectsDuplicateKeyId() {
+        IOException e = assertThrows(IOException.class, () -> load("3 100 200\n4 1 2\n3 300 400\n"));
+        assertTrue(e.getMessage().contains("LINE 3"), e.getMessage());
+    }
+
+    @Test
+    void rejectsFileWithoutKeys() {
+        assertThrows(IOException.class, () -> load(""));
+        assertThrows(IOException.class, () -> load("# no keys yet\n\n   \n"));
+    }
+
+    @Test
+    void defaultsMatchBuiltInKeys() {
+        KeyRegistry keys = KeyRegistry.defaults();
+        assertEquals(AuthKey.AUTH_KEYS.size(), keys.size());
+        AuthKey.AUTH_KEYS.forEach((id, pair) -> {
+            assertEquals(pair.getServerKey(), keys.getServerKey(id));
+            assertEquals(pair.getClientKey(), keys.getClientKey(id));
+        });
+    }
+}
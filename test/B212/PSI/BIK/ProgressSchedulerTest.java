@@ -0,0 +1,243 @@
+package B212.PSI.BIK;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgressSchedulerTest {
+
+    private final SessionTable table = new SessionTable(256);
+    private final List<Integer> grants = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Thread acquiring permit for one session, permit is released right after grant.
+     */
+    private final class Attempt extends Thread {
+        private final ProgressScheduler scheduler;
+        private final int slot;
+        volatile boolean granted;
+        volatile IOException failure;
+
+        Attempt(ProgressScheduler scheduler, int slot) {
+            this.scheduler = scheduler;
+            this.slot = slot;
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                scheduler.acquire(slot);
+                granted = true;
+                grants.add(slot);
+                scheduler.release();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private int session(int phase, int x, int y) {
+        int slot = table.acquire(new Socket());
+        table.setPhase(slot, phase);
+        if (phase >= SessionPhase.MOVING) {
+            table.setPosition(slot, x, y);
+            table.setOrientation(slot, RobotOrientation.XP);
+        }
+        return slot;
+    }
+
+    private static void awaitWaiting(ProgressScheduler scheduler, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.waiting() != count) {
+            assertTrue(System.nanoTime() < deadline, scheduler.waiting() + " sessions waiting instead of " + count);
+            Thread.sleep(5);
+        }
+    }
+
+    private Attempt waitingAttempt(ProgressScheduler scheduler, int slot) throws InterruptedException {
+        int waiting = scheduler.waiting();
+        Attempt attempt = new Attempt(scheduler, slot);
+        awaitWaiting(scheduler, waiting + 1);
+        return attempt;
+    }
+
+    /**
+     * Checks that free permit was not lost - next session gets it without waiting.
+     */
+    private void assertPermitAvailable(ProgressScheduler scheduler) throws InterruptedException {
+        Attempt check = new Attempt(scheduler, session(SessionPhase.MOVING, 1, 1));
+        check.join(2000);
+        assertTrue(check.granted, "permit was lost");
+    }
+
+    @Test
+    void grantsPermitsByProgress() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        scheduler.acquire(session(SessionPhase.MOVING, 3, 3)); //holds only permit
+
+        int handshake = session(SessionPhase.AUTHENTICATING, 0, 0);
+        int far = session(SessionPhase.MOVING, 6, 5);
+        int near = session(SessionPhase.MOVING, 1, 0);
+        int nearWithMoreCommands = session(SessionPhase.MOVING, 0, -1);
+        table.countCommand(nearWithMoreCommands);
+        int picking = session(SessionPhase.PICKING, 0, 0);
+
+        List<Attempt> attempts = new ArrayList<>();
+        for (int slot : new int[]{handshake, far, near, nearWithMoreCommands, picking})
+            attempts.add(waitingAttempt(scheduler, slot));
+
+        scheduler.release();
+        for (Attempt attempt : attempts)
+            attempt.join(2000);
+        assertEquals(List.of(picking, nearWithMoreCommands, near, far, handshake), grants);
+    }
+
+    @Test
+    void equalProgressIsServedInArrivalOrder() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        scheduler.acquire(session(SessionPhase.MOVING, 3, 3));
+
+        int first = session(SessionPhase.MOVING, 2, 2);
+        int second = session(SessionPhase.MOVING, -2, 2);
+        Attempt a = waitingAttempt(scheduler, first);
+        Attempt b = waitingAttempt(scheduler, second);
+
+        scheduler.release();
+        a.join(2000);
+        b.join(2000);
+        assertEquals(List.of(first, second), grants);
+    }
+
+    @Test
+    void shedsHandshakeWaitingTooLong() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 50, 100);
+        scheduler.acquire(session(SessionPhase.MOVING, 3, 3));
+
+        //session past handshake is never shed
+        Attempt moving = waitingAttempt(scheduler, session(SessionPhase.MOVING, 2, 2));
+        assertThrows(IOException.class, () -> scheduler.acquire(session(SessionPhase.AUTHENTICATING, 0, 0)));
+        assertThrows(IOException.class, () -> scheduler.acquire(session(SessionPhase.CONNECTED, 0, 0)));
+        assertEquals(1, scheduler.waiting());
+        assertTrue(scheduler.toString().contains("handshakes 2"), scheduler.toString());
+
+        scheduler.release();
+        moving.join(2000);
+        assertTrue(moving.granted);
+    }
+
+    @Test
+    void handshakeIsOnlyDeferredWithoutWaitLimit() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        scheduler.acquire(session(SessionPhase.MOVING, 3, 3));
+
+        Attempt handshake = waitingAttempt(scheduler, session(SessionPhase.AUTHENTICATING, 0, 0));
+        handshake.join(300);
+        assertTrue(handshake.isAlive(), "handshake was shed");
+
+        scheduler.release();
+        handshake.join(2000);
+        assertTrue(handshake.granted);
+    }
+
+    @Test
+    void interruptedWaiterLeavesQueue() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        scheduler.acquire(session(SessionPhase.MOVING, 3, 3));
+
+        Attempt best = waitingAttempt(scheduler, session(SessionPhase.PICKING, 0, 0));
+        Attempt other = waitingAttempt(scheduler, session(SessionPhase.MOVING, 4, 4));
+        best.interrupt();
+        best.join(2000);
+        assertNotNull(best.failure);
+        assertEquals(1, scheduler.waiting());
+
+        scheduler.release();
+        other.join(2000);
+        assertTrue(other.granted);
+        assertPermitAvailable(scheduler);
+    }
+
+    @Test
+    void permitGrantedToInterruptedWaiterIsPassedOn() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        int holder = session(SessionPhase.MOVING, 3, 3);
+        //interrupt races with grant - waiter either uses permit or hands it over, it is never lost
+        for (int i = 0; i < 50; ++i) {
+            scheduler.acquire(holder);
+            Attempt waiter = waitingAttempt(scheduler, session(SessionPhase.MOVING, 2, 2));
+            scheduler.release();
+            waiter.interrupt();
+            waiter.join(2000);
+            assertTrue(waiter.granted || waiter.failure != null);
+            assertPermitAvailable(scheduler);
+        }
+    }
+
+    @Test
+    void closedSessionLeavesQueue() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        scheduler.acquire(session(SessionPhase.MOVING, 3, 3));
+
+        int evicted = session(SessionPhase.MOVING, 1, 1);
+        Attempt attempt = waitingAttempt(scheduler, evicted);
+        assertTrue(table.evict(evicted, table.getGeneration(evicted)));
+        attempt.join(2000);
+        assertNotNull(attempt.failure, "evicted session still waits");
+        assertEquals(0, scheduler.waiting());
+
+        scheduler.release();
+        assertPermitAvailable(scheduler);
+    }
+
+    @Test
+    void sessionDoesNotHoldPermitWhileWaitingForReply() throws Exception {
+        ProgressScheduler scheduler = new ProgressScheduler(table, 1, 0, 100);
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket robot = new Socket(InetAddress.getLoopbackAddress(), ss.getLocalPort());
+             Socket server = ss.accept()) {
+            int slot = table.acquire(server);
+            table.setPhase(slot, SessionPhase.MOVING);
+            Messenger messenger = new Messenger(new BufferedReader(new InputStreamReader(server.getInputStream())),
+                    new PrintWriter(server.getOutputStream()), server, table, slot, scheduler);
+            Writer replies = new OutputStreamWriter(robot.getOutputStream());
+
+            //pipelined batch of two commands, robot replies to first one only
+            messenger.queue(new ServerMessage(ServerMessageText.SERVER_MOVE));
+            messenger.queue(new ServerMessage(ServerMessageText.SERVER_MOVE));
+            messenger.flush();
+            replies.write("OK 1 0\u0007\u0008");
+            replies.flush();
+            assertEquals(new RobotPosition(1, 0), messenger.readMove());
+
+            FutureTask<RobotPosition> secondReply = new FutureTask<>(messenger::readMove);
+            new Thread(secondReply).start();
+
+            //other session gets only permit while this one waits for its reply
+            Attempt other = new Attempt(scheduler, session(SessionPhase.MOVING, 5, 5));
+            other.join(2000);
+            assertTrue(other.granted, "permit held while waiting for reply");
+
+            replies.write("OK 2 0\u0007\u0008");
+            replies.flush();
+            assertEquals(new RobotPosition(2, 0), secondReply.get(2, TimeUnit.SECONDS));
+            messenger.endStep();
+            assertPermitAvailable(scheduler);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package B212.PSI.BIK;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PuppeteerTest {
+
+    @AfterEach
+    void restoreKeys() {
+        KeyRegistry.install(KeyRegistry.defaults());
+    }
+
+    /**
+     * Built-in key pairs, all flagged for pipelining.
+     */
+    private static KeyRegistry pipeliningKeys() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        AuthKey.AUTH_KEYS.forEach((id, pair) ->
+                lines.append(id).append(' ').append(pair.getServerKey()).append(' ').append(pair.getClientKey()).append(" pipeline\n"));
+        Path file = Files.createTempFile("keys", ".txt");
+        try {
+            Files.writeString(file, lines);
+            return KeyRegistry.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Runs one session of scripted robot against real Service.
+     *
+     * @param pipelining Expected negotiated mode.
+     * @return Robot after session ended.
+     */
+    private static SyntheticRobot run(int scenario, long seed, boolean pipelining) throws Exception {
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), ss.getLocalPort());
+             Socket server = ss.accept()) {
+            client.setTcpNoDelay(true);
+            Server.Service service = new Server.Service(server);
+            Thread thread = new Thread(service);
+            thread.start();
+            SyntheticRobot robot = new SyntheticRobot(client, scenario, seed);
+            robot.run();
+            thread.join();
+            assertEquals(pipelining, service.puppeteer.isPipelining());
+            return robot;
+        }
+    }
+
+    @Test
+    void pipelinedNavigationMatchesLockStep() throws Exception {
+        KeyRegistry lockStepKeys = KeyRegistry.defaults();
+        KeyRegistry pipelinedKeys = pipeliningKeys();
+        int completed = 0;
+
+        for (long seed = 0; seed < 40; ++seed) {
+            int scenario = seed % 2 == 0 ? SyntheticRobot.NORMAL : SyntheticRobot.RECHARGING;
+
+            KeyRegistry.install(lockStepKeys);
+            SyntheticRobot lockStep = run(scenario, seed, false);
+            KeyRegistry.install(pipelinedKeys);
+            SyntheticRobot pipelined = run(scenario, seed, true);
+
+            assertEquals(lockStep.getEnding(), pipelined.getEnding(), "ending of seed " + seed);
+            assertEquals(lockStep.getCommands(), pipelined.getCommands(), "commands of seed " + seed);
+            assertEquals(lockStep.getPath(), pipelined.getPath(), "positions of seed " + seed);
+            if (pipelined.isCompleted()) ++completed;
+        }
+        assertTrue(completed > 30, "only " + completed + " missions completed");
+    }
+}
@@ -6,6 +6,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
@@ -21,4 +23,24 @@ class ServerTest {
 
 
     }
+
+    @Test
+    void fragmentedFramesCompleteMission() throws Exception {
+        assertMissionCompleted(ImpairmentProxy.Profile.FRAGMENTED);
+    }
+
+    @Test
+    void coalescedFramesCompleteMission() throws Exception {
+        assertMissionCompleted(ImpairmentProxy.Profile.COALESCED);
+    }
+
+    private void assertMissionCompleted(ImpairmentProxy.Profile profile) throws Exception {
+        try (ServerSocket ss = ImpairmentHarness.startServer();
+             ImpairmentProxy proxy = new ImpairmentProxy(ss.getLocalPort(), profile);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), proxy.getPort())) {
+            SyntheticRobot robot = new SyntheticRobot(socket, SyntheticRobot.RECHARGING, 1);
+            robot.run();
+            assertTrue(robot.isCompleted(), "mission ended by " + robot.getEnding());
+        }
+    }
 }
\ No newline at end of file
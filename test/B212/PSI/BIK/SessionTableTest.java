@@ -0,0 +1,117 @@
+package B212.PSI.BIK;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionTableTest {
+
+    @Test
+    void releasedSlotIsRecycledWithNewGeneration() {
+        SessionTable table = new SessionTable(10);
+        int first = table.acquire(new Socket());
+        int second = table.acquire(new Socket());
+        assertNotEquals(first, second);
+        assertEquals(2, table.active());
+        int generation = table.getGeneration(first);
+
+        table.setKeyId(first, 3);
+        table.setPosition(first, 4, -5);
+        table.setOrientation(first, RobotOrientation.YN);
+        table.setPhase(first, SessionPhase.MOVING);
+        table.countCommand(first);
+        table.release(first);
+        assertEquals(1, table.active());
+
+        int recycled = table.acquire(new Socket());
+        assertEquals(first, recycled);
+        assertEquals(generation + 1, table.getGeneration(recycled));
+        assertEquals(2, table.active());
+
+        //new session starts from clean state
+        assertEquals(-1, table.getKeyId(recycled));
+        assertEquals(0, table.getX(recycled));
+        assertEquals(0, table.getY(recycled));
+        assertNull(table.getOrientation(recycled));
+        assertEquals(SessionPhase.CONNECTED, table.getPhase(recycled));
+        assertEquals(0, table.getCommands(recycled));
+    }
+
+    @Test
+    void tableGrowsBySegmentsUpToCapacity() {
+        SessionTable table = new SessionTable(5000);
+        for (int i = 0; i < 5000; ++i)
+            assertEquals(i, table.acquire(null));
+        table.setPosition(4999, 7, 8);
+        assertEquals(7, table.getX(4999));
+        assertEquals(5000, table.snapshot(info -> true).size());
+        assertThrows(IllegalStateException.class, () -> table.acquire(null));
+
+        table.release(4100);
+        assertEquals(4100, table.acquire(null));
+    }
+
+    @Test
+    void evictChecksGeneration() {
+        SessionTable table = new SessionTable(10);
+        Socket old = new Socket();
+        int slot = table.acquire(old);
+        int oldGeneration = table.getGeneration(slot);
+        table.release(slot);
+
+        Socket current = new Socket();
+        assertEquals(slot, table.acquire(current));
+
+        //stale ID from earlier snapshot must not close recycled slot
+        assertFalse(table.evict(slot, oldGeneration));
+        assertFalse(current.isClosed());
+
+        assertTrue(table.evict(slot, table.getGeneration(slot)));
+        assertTrue(current.isClosed());
+
+        assertFalse(table.evict(-1, 1));
+        assertFalse(table.evict(5, 1)); //never used slot
+    }
+
+    @Test
+    void evictIgnoresReleasedSlot() {
+        SessionTable table = new SessionTable(10);
+        Socket socket = new Socket();
+        int slot = table.acquire(socket);
+        int generation = table.getGeneration(slot);
+        table.release(slot);
+
+        assertFalse(table.evict(slot, generation));
+        assertFalse(socket.isClosed());
+    }
+
+    @Test
+    void snapshotSkipsClosedSlots() {
+        SessionTable table = new SessionTable(10);
+        int first = table.acquire(new Socket());
+        int second = table.acquire(new Socket());
+        int third = table.acquire(new Socket());
+        table.setPhase(third, SessionPhase.PICKING);
+        table.setRecharging(third, true);
+        table.release(second);
+
+        List<SessionTable.SessionInfo> all = table.snapshot(info -> true);
+        assertEquals(2, all.size());
+        assertEquals(first, all.get(0).slot());
+        assertEquals(third, all.get(1).slot());
+        assertEquals(table.getGeneration(third), all.get(1).generation());
+        assertEquals(SessionPhase.PICKING, all.get(1).phase());
+        assertEquals(0, all.get(0).rechargingMs());
+
+        List<SessionTable.SessionInfo> picking = table.snapshot(info -> info.phase() == SessionPhase.PICKING);
+        assertEquals(1, picking.size());
+        assertEquals(third, picking.get(0).slot());
+
+        table.release(first);
+        table.release(third);
+        assertTrue(table.snapshot(info -> true).isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package B212.PSI.BIK;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Loopback benchmark of per-command round trip time and mission time with each socket profile.
+ * Scenarios cover lock-step traffic with one write per frame, and traffic with frames written back to back -
+ * recharging robot (RECHARGING, FULL POWER and reply) and pipelined command batches with their replies.
+ * Run with optional number of sessions per scenario and profile as first argument.
+ */
+class SocketProfileBenchmark {
+
+    /**
+     * Robot scenario run with given key registry
+     */
+    record Scenario(String name, int robot, boolean pipelining) {
+    }
+
+    static final Scenario[] SCENARIOS = {
+            new Scenario("lock-step", SyntheticRobot.NORMAL, false),
+            new Scenario("recharging", SyntheticRobot.RECHARGING, false),
+            new Scenario("pipelined", SyntheticRobot.NORMAL, true),
+            new Scenario("pipe+rechg", SyntheticRobot.RECHARGING, true)
+    };
+
+    /**
+     * Measured round trips and mission times of one scenario
+     */
+    record Result(long[] roundTrips, long[] missions) {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        KeyRegistry lockStepKeys = KeyRegistry.defaults();
+        KeyRegistry pipelinedKeys = pipeliningKeys();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); //mute server logging
+
+        try {
+            for (Scenario scenario : SCENARIOS) {
+                KeyRegistry.install(scenario.pipelining() ? pipelinedKeys : lockStepKeys);
+                for (SocketProfile profile : new SocketProfile[]{SocketProfile.DEFAULT, SocketProfile.LOW_LATENCY}) {
+                    run(profile, scenario.robot(), sessions / 4); //warm-up round
+                    Result result = run(profile, scenario.robot(), sessions);
+                    long[] rtt = result.roundTrips();
+                    long[] missions = result.missions();
+                    Arrays.sort(rtt);
+                    Arrays.sort(missions);
+                    out.printf("%-10s %-12s commands %6d | RTT us mean %7.1f p50 %7.1f p99 %8.1f max %8.1f | mission ms mean %7.2f p50 %7.2f%n",
+                            scenario.name(), profile.getName(), rtt.length, mean(rtt) / 1000, percentile(rtt, 0.50), percentile(rtt, 0.99),
+                            rtt.length == 0 ? 0 : rtt[rtt.length - 1] / 1000.0, mean(missions) / 1_000_000, percentile(missions, 0.50) / 1000);
+                }
+            }
+        } finally {
+            KeyRegistry.install(lockStepKeys);
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * @return Built-in key pairs, all flagged for pipelining.
+     */
+    private static KeyRegistry pipeliningKeys() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        AuthKey.AUTH_KEYS.forEach((id, pair) ->
+                lines.append(id).append(' ').append(pair.getServerKey()).append(' ').append(pair.getClientKey()).append(" pipeline\n"));
+        Path file = Files.createTempFile("keys", ".txt");
+        try {
+            Files.writeString(file, lines);
+            return KeyRegistry.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Runs sessions one by one with given profile applied on both sides.
+     *
+     * @param profile  Socket profile.
+     * @param scenario Synthetic robot scenario.
+     * @param sessions Number of sessions.
+     * @return All measured round trips and mission times of completed sessions in nanoseconds.
+     */
+    static Result run(SocketProfile profile, int scenario, int sessions) throws IOException, InterruptedException {
+        long[] all = new long[0];
+        long[] missions = new long[sessions];
+        int completed = 0;
+        try (ServerSocket ss = new ServerSocket()) {
+            profile.applyListening(ss);
+            ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), profile.getBacklog());
+            for (int i = 0; i < sessions; ++i) {
+                long start = System.nanoTime();
+                Socket client = new Socket(InetAddress.getLoopbackAddress(), ss.getLocalPort());
+                profile.apply(client);
+                Thread service = new Thread(new Server.Service(ss.accept(), profile));
+                service.start();
+                SyntheticRobot robot = new SyntheticRobot(client, scenario, i);
+                robot.run();
+                if (robot.isCompleted()) missions[completed++] = System.nanoTime() - start;
+                service.join();
+
+                long[] rtt = robot.getRoundTrips();
+                int length = all.length;
+                all = Arrays.copyOf(all, length + rtt.length);
+                System.arraycopy(rtt, 0, all, length, rtt.length);
+            }
+        }
+        return new Result(all, Arrays.copyOf(missions, completed));
+    }
+
+    static double mean(long[] values) {
+        return values.length == 0 ? 0 : (double) Arrays.stream(values).sum() / values.length;
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1000.0;
+    }
+}